@@ -0,0 +1,61 @@
+package com.sf.wzq.singletouchview;
+
+import android.os.Build;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+/**
+ * 拖动时通过translation移动View与每帧调用layout()的对比：帧数、掉帧数、onDraw次数和耗时、
+ * 每帧处理事件的耗时以及layout()的次数。结果输出到logcat，tag为DragLayoutBenchmark。
+ * 按vsync驱动需要API 16
+ */
+public class DragLayoutBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final String TAG = "DragLayoutBenchmark";
+    private static final int FRAMES = 240;
+    private static final int WARMUP_FRAMES = 60;
+
+    private SingleTouchView mView;
+
+    public DragLayoutBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setActivityInitialTouchMode(true);
+        mView = (SingleTouchView) getActivity().findViewById(R.id.stv);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // 只比较移动View的方式：不合并事件、不惯性滑动、没有参考线和硬件层
+                mView.setCoalesceTouchEvents(false);
+                mView.setFlingEnabled(false);
+                mView.setAlignmentGuidesEnabled(false);
+                mView.setGestureLayerEnabled(false);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    public void testDragTranslationVersusLayout() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Log.w(TAG, "skipped: Choreographer requires API 16");
+            return;
+        }
+        new DragRunner(mView, WARMUP_FRAMES, false).run(getInstrumentation());
+
+        DragRunner translation = new DragRunner(mView, FRAMES, false);
+        translation.run(getInstrumentation());
+        DragRunner layout = new DragRunner(mView, FRAMES, true);
+        layout.run(getInstrumentation());
+
+        Log.i(TAG, "mode\tframes\tdropped\tdraws\tdraw us\tinput us\tlayouts");
+        Log.i(TAG, "translation\t" + translation.summary());
+        Log.i(TAG, "layout\t" + layout.summary());
+
+        // 拖动只改变translation，不应该有任何layout()
+        assertEquals(0, translation.getLayoutCount());
+        assertTrue(layout.getLayoutCount() > 0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.sf.wzq.singletouchview;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * 在UI线程中按vsync向SingleTouchView发送一次拖动，每帧一个MOVE事件，并记录这次拖动的性能数据。
+ * 事件直接交给View.dispatchTouchEvent，不经过输入系统，每帧的输入量是固定的，多次运行之间可以比较。
+ * 绘制耗时、经过的帧数和掉帧数来自GestureFrameStats，这里另外统计layout()的次数和每帧处理事件的耗时
+ */
+class DragRunner implements Choreographer.FrameCallback, View.OnLayoutChangeListener {
+    /**
+     * 拖动的路径：在起点左右来回移动，每帧移动的像素
+     */
+    private static final int STEP = 6;
+    private static final int STEPS_PER_SWEEP = 40;
+
+    private final SingleTouchView mView;
+    private final int mFrames;
+    private final boolean mLayoutEachFrame;
+    private final GestureFrameStats mStats = new GestureFrameStats();
+    private final Object mLock = new Object();
+
+    private float mStartX, mStartY;
+    private long mDownTime;
+    private int mFrame;
+    private int mLayoutCount;
+    private long mInputNanos;
+    private int mHardwareLayerFrames;
+    private boolean mFinished;
+
+    /**
+     * @param frames          拖动持续的帧数
+     * @param layoutEachFrame 为true时每帧把translation换成layout()，模拟拖动时调用layout()的旧做法
+     */
+    DragRunner(SingleTouchView view, int frames, boolean layoutEachFrame) {
+        mView = view;
+        mFrames = frames;
+        mLayoutEachFrame = layoutEachFrame;
+    }
+
+    /**
+     * 在测试线程中调用，拖动结束后返回
+     */
+    void run(Instrumentation instrumentation) throws InterruptedException {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                start();
+            }
+        });
+        synchronized (mLock) {
+            long deadline = SystemClock.uptimeMillis() + mFrames * 100L + 5000;
+            while (!mFinished) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) throw new InterruptedException("drag did not finish");
+                mLock.wait(remaining);
+            }
+        }
+        instrumentation.waitForIdleSync();
+    }
+
+    private void start() {
+        mView.setOnMetricsListener(mStats);
+        mView.addOnLayoutChangeListener(this);
+        // 从View的中心开始拖动，坐标相对于父布局
+        mStartX = mView.getLeft() + mView.getTranslationX() + mView.getWidth() / 2f;
+        mStartY = mView.getTop() + mView.getTranslationY() + mView.getHeight() / 2f;
+        mDownTime = SystemClock.uptimeMillis();
+        dispatch(MotionEvent.ACTION_DOWN, mStartX, mStartY);
+        // 只统计拖动中的数据
+        mStats.reset();
+        mLayoutCount = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrame++;
+        int step = mFrame % (STEPS_PER_SWEEP * 2);
+        float x = mStartX + STEP * (step < STEPS_PER_SWEEP ? step : STEPS_PER_SWEEP * 2 - step);
+        if (mFrame < mFrames) {
+            long start = System.nanoTime();
+            dispatch(MotionEvent.ACTION_MOVE, x, mStartY);
+            if (mLayoutEachFrame) {
+                relayout();
+            }
+            mInputNanos += System.nanoTime() - start;
+            if (mView.getLayerType() == View.LAYER_TYPE_HARDWARE) {
+                mHardwareLayerFrames++;
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            dispatch(MotionEvent.ACTION_UP, x, mStartY);
+            mView.removeOnLayoutChangeListener(this);
+            mView.setOnMetricsListener(null);
+            synchronized (mLock) {
+                mFinished = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 把当前的translation合并到View的位置中，onLayout会把translation改回0
+     */
+    private void relayout() {
+        int left = mView.getLeft() + (int) mView.getTranslationX();
+        int top = mView.getTop() + (int) mView.getTranslationY();
+        mView.layout(left, top, left + mView.getWidth(), top + mView.getHeight());
+    }
+
+    /**
+     * x, y为相对于父布局的坐标，换算成View当前位置的坐标后发送
+     */
+    private void dispatch(int action, float x, float y) {
+        MotionEvent event = MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action,
+                x - mView.getLeft() - mView.getTranslationX(), y - mView.getTop() - mView.getTranslationY(), 0);
+        mView.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    @Override
+    public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                               int oldLeft, int oldTop, int oldRight, int oldBottom) {
+        mLayoutCount++;
+    }
+
+    GestureFrameStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * 拖动中位置或大小发生变化的layout()次数
+     */
+    int getLayoutCount() {
+        return mLayoutCount;
+    }
+
+    /**
+     * 拖动中View处于硬件层的帧数
+     */
+    int getHardwareLayerFrames() {
+        return mHardwareLayerFrames;
+    }
+
+    /**
+     * 每帧处理MOVE事件(以及模拟的layout())的平均耗时
+     */
+    long getAverageInputNanos() {
+        return mFrames > 1 ? mInputNanos / (mFrames - 1) : 0;
+    }
+
+    /**
+     * 一行可以放到表格中的结果，各列依次为：帧数，掉帧数，onDraw次数，平均onDraw耗时(us)，
+     * 每帧处理事件的平均耗时(us)，layout()次数
+     */
+    String summary() {
+        return mStats.getGestureFrames() + "\t" + mStats.getDroppedFrames()
+                + "\t" + mStats.getDrawCount() + "\t" + mStats.getAverageDrawDurationNanos() / 1000
+                + "\t" + getAverageInputNanos() / 1000 + "\t" + mLayoutCount;
+    }
+}
@@ -0,0 +1,121 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导出时的等比缩放、居中、按块解码和异常时的结果
+ */
+public class ExportRendererTest extends AndroidTestCase {
+    private static final int SCENE_SIZE = 100;
+    private static final int STICKER_SIZE = 40;
+
+    public void testLetterboxKeepsAspectRatio() throws InterruptedException {
+        ExportRenderer renderer = new ExportRenderer(SCENE_SIZE, SCENE_SIZE, 400, 200);
+        assertEquals(2f, renderer.getScale());
+        renderer.setBackgroundColor(Color.BLUE);
+        renderer.addLayer(solid(Color.RED), centeredEngine(), Color.BLACK);
+        Bitmap result = render(renderer, 400, 200);
+
+        // 贴图在输出中仍然是80 * 80的正方形，位于中心；左右多出的100像素为背景色
+        assertEquals(Color.RED, result.getPixel(200, 100));
+        assertEquals(Color.RED, result.getPixel(161, 61));
+        assertEquals(Color.RED, result.getPixel(238, 138));
+        assertEquals(Color.BLUE, result.getPixel(158, 100));
+        assertEquals(Color.BLUE, result.getPixel(242, 100));
+        assertEquals(Color.BLUE, result.getPixel(200, 58));
+        assertEquals(Color.BLUE, result.getPixel(50, 100));
+    }
+
+    public void testTilesDecodeOnlyTheirRegion() throws InterruptedException {
+        final Bitmap sticker = solid(Color.GREEN);
+        final int[] decodes = new int[1];
+        final float[] maxArea = new float[1];
+        ExportRenderer renderer = new ExportRenderer(SCENE_SIZE, SCENE_SIZE, 400, 400);
+        renderer.setTileSize(100);
+        renderer.addLayer(new ExportRenderer.LayerSource() {
+            @Override
+            public Bitmap decode(float scale, RectF region) {
+                decodes[0]++;
+                maxArea[0] = Math.max(maxArea[0], region.width() * region.height());
+                // 按需要的区域和分辨率从整张图中裁出来
+                return Bitmap.createBitmap(sticker, (int) region.left, (int) region.top,
+                        (int) Math.ceil(region.right) - (int) region.left,
+                        (int) Math.ceil(region.bottom) - (int) region.top);
+            }
+
+            @Override
+            public void release(Bitmap bitmap) {
+                bitmap.recycle();
+            }
+        }, centeredEngine(), Color.BLACK);
+        Bitmap result = render(renderer, 400, 400);
+
+        // 贴图覆盖中间的4块，每块只解码四分之一左右的区域
+        assertEquals(4, decodes[0]);
+        assertTrue(maxArea[0] < STICKER_SIZE * STICKER_SIZE / 2);
+        assertEquals(Color.GREEN, result.getPixel(200, 200));
+        assertEquals(Color.GREEN, result.getPixel(130, 130));
+        assertEquals(Color.GREEN, result.getPixel(270, 270));
+    }
+
+    public void testSourceExceptionFinishesWithFailure() throws InterruptedException {
+        ExportRenderer renderer = new ExportRenderer(SCENE_SIZE, SCENE_SIZE, 200, 200);
+        renderer.addLayer(new ExportRenderer.LayerSource() {
+            @Override
+            public Bitmap decode(float scale, RectF region) {
+                throw new IllegalStateException("decoder recycled");
+            }
+
+            @Override
+            public void release(Bitmap bitmap) {
+            }
+        }, centeredEngine(), Color.BLACK);
+        assertFalse(finish(renderer, Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888)));
+    }
+
+    private static Bitmap solid(int color) {
+        Bitmap bitmap = Bitmap.createBitmap(STICKER_SIZE, STICKER_SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        return bitmap;
+    }
+
+    private static TransformEngine centeredEngine() {
+        TransformEngine engine = new TransformEngine();
+        engine.setImageSize(STICKER_SIZE, STICKER_SIZE);
+        engine.setCenter(SCENE_SIZE / 2, SCENE_SIZE / 2);
+        return engine;
+    }
+
+    private Bitmap render(ExportRenderer renderer, int width, int height) throws InterruptedException {
+        Bitmap target = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        assertTrue(finish(renderer, target));
+        return target;
+    }
+
+    /**
+     * 绘制到target，等待onFinished并返回结果
+     */
+    private boolean finish(ExportRenderer renderer, Bitmap target) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] success = new boolean[1];
+        renderer.render(target, new ExportRenderer.Callback() {
+            @Override
+            public void onProgress(int finishedTiles, int totalTiles) {
+            }
+
+            @Override
+            public void onFinished(boolean result) {
+                success[0] = result;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        return success[0];
+    }
+}
@@ -0,0 +1,77 @@
+package com.sf.wzq.singletouchview;
+
+import android.os.Build;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * 拖动时使用和不使用硬件层的对比：帧数、掉帧数、onDraw次数和耗时、每帧处理事件的耗时。
+ * 使用硬件层时拖动的每一帧只合成缓存的层，GPU端的耗时可以在运行时用adb shell dumpsys gfxinfo对比。
+ * 结果输出到logcat，tag为GestureLayerBenchmark。按vsync驱动需要API 16
+ */
+public class GestureLayerBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final String TAG = "GestureLayerBenchmark";
+    private static final int FRAMES = 240;
+    private static final int WARMUP_FRAMES = 60;
+
+    private SingleTouchView mView;
+
+    public GestureLayerBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setActivityInitialTouchMode(true);
+        mView = (SingleTouchView) getActivity().findViewById(R.id.stv);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mView.setCoalesceTouchEvents(false);
+                mView.setFlingEnabled(false);
+                mView.setAlignmentGuidesEnabled(false);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    public void testDragWithAndWithoutHardwareLayer() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Log.w(TAG, "skipped: Choreographer requires API 16");
+            return;
+        }
+        if (!mView.isHardwareAccelerated()) {
+            Log.w(TAG, "skipped: hardware acceleration is off");
+            return;
+        }
+        setGestureLayerEnabled(false);
+        new DragRunner(mView, WARMUP_FRAMES, false).run(getInstrumentation());
+        DragRunner plain = new DragRunner(mView, FRAMES, false);
+        plain.run(getInstrumentation());
+
+        setGestureLayerEnabled(true);
+        new DragRunner(mView, WARMUP_FRAMES, false).run(getInstrumentation());
+        DragRunner layered = new DragRunner(mView, FRAMES, false);
+        layered.run(getInstrumentation());
+
+        Log.i(TAG, "mode\tframes\tdropped\tdraws\tdraw us\tinput us\tlayouts");
+        Log.i(TAG, "no layer\t" + plain.summary());
+        Log.i(TAG, "hardware layer\t" + layered.summary());
+
+        assertEquals(0, plain.getHardwareLayerFrames());
+        // 拖动中的每一帧都在硬件层中，松手后恢复原来的layerType
+        assertEquals(FRAMES - 1, layered.getHardwareLayerFrames());
+        assertEquals(View.LAYER_TYPE_NONE, mView.getLayerType());
+    }
+
+    private void setGestureLayerEnabled(final boolean enabled) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mView.setGestureLayerEnabled(enabled);
+            }
+        });
+    }
+}
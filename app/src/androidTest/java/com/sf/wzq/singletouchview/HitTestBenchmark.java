@@ -0,0 +1,109 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * 命中测试的耗时与贴图个数的关系：StickerGrid索引和逐个判断四边形的线性扫描，
+ * 以及拖动一个贴图时更新索引的耗时。结果输出到logcat，tag为HitTestBenchmark：
+ * adb shell am instrument -w -e class com.sf.wzq.singletouchview.HitTestBenchmark ...
+ */
+public class HitTestBenchmark extends AndroidTestCase {
+    private static final String TAG = "HitTestBenchmark";
+    private static final int[] COUNTS = {10, 100, 1000, 5000};
+    private static final int CANVAS_WIDTH = 1080, CANVAS_HEIGHT = 1920;
+    private static final int STICKER_SIZE = 120;
+    private static final int FRAME_PADDING = 8;
+    private static final int QUERIES = 20000;
+    private static final int WARMUP_QUERIES = 2000;
+
+    private Bitmap mBitmap;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBitmap = Bitmap.createBitmap(STICKER_SIZE, STICKER_SIZE, Bitmap.Config.ALPHA_8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testHitTestCostVersusItemCount() {
+        Log.i(TAG, "count\tgrid ns/hit\tlinear ns/hit\tupdate ns/move");
+        for (int count : COUNTS) {
+            Random random = new Random(count);
+            ArrayList<Sticker> stickers = new ArrayList<Sticker>(count);
+            StickerGrid grid = new StickerGrid();
+            for (int i = 0; i < count; i++) {
+                Sticker sticker = new Sticker(mBitmap,
+                        random.nextFloat() * CANVAS_WIDTH, random.nextFloat() * CANVAS_HEIGHT);
+                sticker.setDegree(random.nextFloat() * 360);
+                sticker.setScale(0.5f + random.nextFloat());
+                sticker.setZOrder(i);
+                sticker.update(FRAME_PADDING);
+                grid.insert(sticker);
+                stickers.add(sticker);
+            }
+            float[] xs = new float[QUERIES];
+            float[] ys = new float[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                xs[i] = random.nextFloat() * CANVAS_WIDTH;
+                ys[i] = random.nextFloat() * CANVAS_HEIGHT;
+            }
+
+            // 两种方式的结果必须相同，否则比较耗时没有意义
+            for (int i = 0; i < WARMUP_QUERIES; i++) {
+                assertSame(findLinear(stickers, xs[i], ys[i]), grid.findTopmostAt(xs[i], ys[i]));
+            }
+
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                if (grid.findTopmostAt(xs[i], ys[i]) != null) hits++;
+            }
+            long gridNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int linearHits = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                if (findLinear(stickers, xs[i], ys[i]) != null) linearHits++;
+            }
+            long linearNanos = System.nanoTime() - start;
+            assertEquals(linearHits, hits);
+
+            // 拖动最上层的贴图：每次移动几个像素，更新四边形和索引
+            Sticker dragged = stickers.get(count - 1);
+            float startX = dragged.getCenterX(), startY = dragged.getCenterY();
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                // 沿对角线来回移动，每次4个像素，会不断跨过格子的边界
+                int step = i % 256 < 128 ? i % 128 : 128 - i % 128;
+                dragged.setCenter(startX + step * 4, startY + step * 4);
+                dragged.update(FRAME_PADDING);
+                grid.update(dragged);
+            }
+            long updateNanos = System.nanoTime() - start;
+
+            Log.i(TAG, count + "\t" + gridNanos / QUERIES + "\t" + linearNanos / QUERIES
+                    + "\t" + updateNanos / QUERIES);
+        }
+    }
+
+    /**
+     * 不用索引，逐个判断所有贴图
+     */
+    private static Sticker findLinear(ArrayList<Sticker> stickers, float x, float y) {
+        for (int i = stickers.size() - 1; i >= 0; i--) {
+            Sticker sticker = stickers.get(i);
+            if (sticker.contains(x, y)) return sticker;
+        }
+        return null;
+    }
+}
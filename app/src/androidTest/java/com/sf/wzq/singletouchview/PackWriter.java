@@ -0,0 +1,70 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 在设备上按StickerPack的格式写出贴图集，供测试使用。
+ * copyPixelsToBuffer输出的字节就是StickerPack要求的像素格式，StickerPacker本身的输出在packer模块中测试
+ */
+final class PackWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PackWriter() {
+    }
+
+    /**
+     * 写出names.length个贴图，第i个贴图的名字为names[i]，像素来自bitmaps[i]
+     */
+    static void write(File file, String[] names, Bitmap[] bitmaps) throws IOException {
+        byte[][] pixels = new byte[bitmaps.length][];
+        int indexBytes = 4 + 1 + 4;
+        for (int i = 0; i < bitmaps.length; i++) {
+            pixels[i] = new byte[bitmaps[i].getRowBytes() * bitmaps[i].getHeight()];
+            bitmaps[i].copyPixelsToBuffer(ByteBuffer.wrap(pixels[i]));
+            indexBytes += 2 + names[i].getBytes(UTF_8).length + 4 + 4 + 1 + 4 + 4;
+        }
+        int[] offsets = new int[bitmaps.length];
+        int size = align(indexBytes);
+        for (int i = 0; i < bitmaps.length; i++) {
+            offsets[i] = size;
+            size = align(size + pixels[i].length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(StickerPack.MAGIC);
+        buffer.put(StickerPack.VERSION);
+        buffer.putInt(bitmaps.length);
+        for (int i = 0; i < bitmaps.length; i++) {
+            byte[] name = names[i].getBytes(UTF_8);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            buffer.putInt(bitmaps[i].getWidth());
+            buffer.putInt(bitmaps[i].getHeight());
+            buffer.put(bitmaps[i].getConfig() == Bitmap.Config.RGB_565
+                    ? StickerPack.CONFIG_RGB_565 : StickerPack.CONFIG_ARGB_8888);
+            buffer.putInt(offsets[i]);
+            buffer.putInt(pixels[i].length);
+        }
+        for (int i = 0; i < bitmaps.length; i++) {
+            buffer.position(offsets[i]);
+            buffer.put(pixels[i]);
+        }
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+}
@@ -0,0 +1,197 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自动选择的像素格式，以及RGB_565、ALPHA_8和ARGB_8888绘制结果一致，ALPHA_8在单个贴图和StickerCanvasView中都按着色绘制
+ */
+public class PixelConfigTest extends AndroidTestCase {
+    private static final int SIZE = 64;
+    private static final int TINT = 0x803366CC;
+
+    private File mFile;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mFile != null) {
+            mFile.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testJpegUsesRgb565() throws IOException {
+        TiledSource source = TiledSource.fromFile(writeImage(gradient(), Bitmap.CompressFormat.JPEG), SIZE);
+        assertTrue(source.isOpaque());
+        SingleTouchView view = new SingleTouchView(getContext());
+        Bitmap.Config config = view.resolvePixelConfig(source.isOpaque());
+        assertEquals(Bitmap.Config.RGB_565, config);
+        source.setConfig(config);
+        assertEquals(Bitmap.Config.RGB_565, source.decodeLevel(0).getConfig());
+        source.release();
+    }
+
+    public void testAlphaPngUsesArgb8888() {
+        MipmapSource source = MipmapSource.fromResource(getContext().getResources(), R.drawable.ic_launcher);
+        assertNotNull(source);
+        assertFalse(source.isOpaque());
+        SingleTouchView view = new SingleTouchView(getContext());
+        Bitmap.Config config = view.resolvePixelConfig(source.isOpaque());
+        assertEquals(Bitmap.Config.ARGB_8888, config);
+        source.setConfig(config);
+        assertEquals(Bitmap.Config.ARGB_8888, source.getLevel(0).getConfig());
+        source.release();
+    }
+
+    public void testTintedUsesAlpha8() {
+        SingleTouchView view = new SingleTouchView(getContext());
+        view.setTintColor(TINT);
+        assertEquals(Bitmap.Config.ALPHA_8, view.resolvePixelConfig(false));
+        assertEquals(Bitmap.Config.ALPHA_8, view.resolvePixelConfig(true));
+        // 明确设置的Config优先于着色
+        view.setPixelConfig(Bitmap.Config.ARGB_8888);
+        assertEquals(Bitmap.Config.ARGB_8888, view.resolvePixelConfig(false));
+    }
+
+    public void testRgb565MatchesArgb8888ForJpeg() throws IOException {
+        String path = writeImage(gradient(), Bitmap.CompressFormat.JPEG);
+        Bitmap argb = decodeFile(path, Bitmap.Config.ARGB_8888);
+        Bitmap rgb565 = decodeFile(path, Bitmap.Config.RGB_565);
+        assertEquals(Bitmap.Config.RGB_565, rgb565.getConfig());
+        // RGB_565每个通道的量化误差最大为8，解码时的抖动再加一点余量
+        assertSimilar(argb, rgb565.copy(Bitmap.Config.ARGB_8888, false), 12);
+    }
+
+    public void testTintedAlpha8MatchesTintedArgb8888() throws InterruptedException {
+        Bitmap shape = tintedCircle();
+        Bitmap alpha = shape.extractAlpha();
+        assertEquals(Bitmap.Config.ALPHA_8, alpha.getConfig());
+
+        // ALPHA_8的形状按着色的颜色画出来，与直接用这个颜色画的ARGB_8888相同
+        assertSimilar(export(shape, TINT), export(alpha, Color.rgb(0x33, 0x66, 0xCC)), 2);
+    }
+
+    public void testCanvasDrawsAlpha8WithTint() throws InterruptedException {
+        Bitmap shape = tintedCircle();
+        StickerCanvasView view = new StickerCanvasView(getContext());
+        view.setEditable(false);
+        view.setTintColor(Color.rgb(0x33, 0x66, 0xCC));
+        view.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, SIZE, SIZE);
+        view.addSticker(shape.extractAlpha());
+
+        // 屏幕上和导出时都按着色的颜色画，而不是没有颜色的黑色
+        Bitmap drawn = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        view.draw(new Canvas(drawn));
+        Bitmap expected = export(shape, TINT);
+        assertSimilar(expected, drawn, 2);
+        assertSimilar(expected, render(view.newExportRenderer(SIZE, SIZE)), 2);
+    }
+
+    public void testArgb8888IgnoresTint() throws InterruptedException {
+        Bitmap opaque = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        opaque.eraseColor(Color.RED);
+        Bitmap result = export(opaque, TINT);
+        assertEquals(Color.RED, result.getPixel(SIZE / 2, SIZE / 2));
+    }
+
+    /**
+     * 用ExportRenderer把一个贴图按原大小画在输出的中心
+     */
+    private Bitmap export(Bitmap bitmap, int tintColor) throws InterruptedException {
+        TransformEngine engine = new TransformEngine();
+        engine.setImageSize(bitmap.getWidth(), bitmap.getHeight());
+        engine.setCenter(SIZE / 2, SIZE / 2);
+        ExportRenderer renderer = new ExportRenderer(SIZE, SIZE, SIZE, SIZE);
+        renderer.addLayer(bitmap, engine, tintColor);
+        return render(renderer);
+    }
+
+    private Bitmap render(ExportRenderer renderer) throws InterruptedException {
+        Bitmap target = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] success = new boolean[1];
+        renderer.render(target, new ExportRenderer.Callback() {
+            @Override
+            public void onProgress(int finishedTiles, int totalTiles) {
+            }
+
+            @Override
+            public void onFinished(boolean result) {
+                success[0] = result;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(success[0]);
+        return target;
+    }
+
+    /**
+     * 用着色的颜色画在透明背景上的圆
+     */
+    private static Bitmap tintedCircle() {
+        Bitmap shape = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(TINT);
+        new Canvas(shape).drawCircle(SIZE / 2, SIZE / 2, SIZE / 3, paint);
+        return shape;
+    }
+
+    private static Bitmap gradient() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                bitmap.setPixel(x, y, Color.rgb(x * 4, y * 4, 255 - (x + y) * 2));
+            }
+        }
+        return bitmap;
+    }
+
+    private String writeImage(Bitmap bitmap, Bitmap.CompressFormat format) throws IOException {
+        mFile = File.createTempFile("pixel_config", null, getContext().getCacheDir());
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            bitmap.compress(format, 100, out);
+        } finally {
+            out.close();
+        }
+        return mFile.getPath();
+    }
+
+    private static Bitmap decodeFile(String path, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    private static void assertSimilar(Bitmap expected, Bitmap actual, int tolerance) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getPixel(x, y);
+                int a = actual.getPixel(x, y);
+                if (Math.abs(Color.alpha(e) - Color.alpha(a)) > tolerance
+                        || Math.abs(Color.red(e) - Color.red(a)) > tolerance
+                        || Math.abs(Color.green(e) - Color.green(a)) > tolerance
+                        || Math.abs(Color.blue(e) - Color.blue(a)) > tolerance) {
+                    fail("pixel (" + x + ", " + y + ") expected " + Integer.toHexString(e)
+                            + " but was " + Integer.toHexString(a));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.sf.wzq.singletouchview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 打开贴图选择器时加载所有贴图的耗时：StickerPack映射文件后逐个复制像素，与逐个BitmapFactory.decodeResource对比。
+ * 贴图集在测试中用App自己的资源由PackWriter生成，贴图个数和尺寸与逐个解码的完全相同。
+ * 结果输出到logcat，tag为StickerPackBenchmark
+ */
+public class StickerPackBenchmark extends AndroidTestCase {
+    private static final String TAG = "StickerPackBenchmark";
+    private static final int[] RESOURCES = {R.drawable.icon_yuan, R.drawable.icon_rotate_zoom, R.drawable.ic_launcher};
+    private static final int STICKERS = 300;
+    private static final int ROUNDS = 5;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "benchmark.pack");
+        writePack(mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testPackLoadVersusDecodeResource() throws IOException {
+        Resources resources = getContext().getResources();
+        // 先各运行一次，排除类加载和第一次读文件的影响
+        decodeResources(resources);
+        loadPack();
+
+        long decodeNanos = Long.MAX_VALUE, openNanos = Long.MAX_VALUE, packNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            decodeResources(resources);
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            StickerPack pack = StickerPack.open(mFile);
+            openNanos = Math.min(openNanos, System.nanoTime() - start);
+            assertEquals(STICKERS, pack.size());
+
+            start = System.nanoTime();
+            loadPack();
+            packNanos = Math.min(packNanos, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, STICKERS + " stickers, best of " + ROUNDS + " rounds");
+        Log.i(TAG, "decodeResource\t" + decodeNanos / 1000 + " us");
+        Log.i(TAG, "pack open (index only)\t" + openNanos / 1000 + " us");
+        Log.i(TAG, "pack open + copy all\t" + packNanos / 1000 + " us");
+    }
+
+    public void testPackMatchesDecodeResource() throws IOException {
+        StickerPack pack = StickerPack.open(mFile);
+        Resources resources = getContext().getResources();
+        for (int i = 0; i < RESOURCES.length; i++) {
+            Bitmap expected = BitmapFactory.decodeResource(resources, RESOURCES[i]);
+            Bitmap actual = pack.decode(pack.indexOf(name(i)));
+            assertTrue(expected.sameAs(actual));
+            expected.recycle();
+            actual.recycle();
+        }
+    }
+
+    private static void decodeResources(Resources resources) {
+        for (int i = 0; i < STICKERS; i++) {
+            BitmapFactory.decodeResource(resources, RESOURCES[i % RESOURCES.length]).recycle();
+        }
+    }
+
+    private void loadPack() throws IOException {
+        StickerPack pack = StickerPack.open(mFile);
+        for (int i = 0; i < pack.size(); i++) {
+            pack.decode(i).recycle();
+        }
+    }
+
+    private static String name(int index) {
+        return "sticker" + index;
+    }
+
+    /**
+     * 写出STICKERS个贴图，依次循环使用RESOURCES中的资源
+     */
+    private void writePack(File file) throws IOException {
+        Resources resources = getContext().getResources();
+        Bitmap[] decoded = new Bitmap[RESOURCES.length];
+        for (int i = 0; i < RESOURCES.length; i++) {
+            decoded[i] = BitmapFactory.decodeResource(resources, RESOURCES[i]);
+        }
+        String[] names = new String[STICKERS];
+        Bitmap[] bitmaps = new Bitmap[STICKERS];
+        for (int i = 0; i < STICKERS; i++) {
+            names[i] = name(i);
+            bitmaps[i] = decoded[i % RESOURCES.length];
+        }
+        PackWriter.write(file, names, bitmaps);
+        for (Bitmap bitmap : decoded) {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * StickerCanvasView保存、恢复贴图：资源按名字引用，贴图集中的贴图从注册的贴图集恢复，自定义引用通过SourceResolver恢复
+ */
+public class StickerStateTest extends AndroidTestCase {
+    private static final String CUSTOM_SOURCE = "file:///sdcard/red.png";
+
+    private Bitmap mBitmap;
+    private File mPackFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBitmap = Bitmap.createBitmap(20, 10, Bitmap.Config.ARGB_8888);
+        mBitmap.eraseColor(Color.RED);
+        Bitmap blue = Bitmap.createBitmap(8, 6, Bitmap.Config.ARGB_8888);
+        blue.eraseColor(Color.BLUE);
+        mPackFile = new File(getContext().getCacheDir(), "state_test.pack");
+        PackWriter.write(mPackFile, new String[]{"red", "blue"}, new Bitmap[]{mBitmap, blue});
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPackFile.delete();
+        super.tearDown();
+    }
+
+    public void testResourceSourceUsesName() {
+        String source = TransformState.resourceSource(getContext().getResources(), R.drawable.icon_yuan);
+        assertTrue(source, source.endsWith(":drawable/icon_yuan"));
+        assertEquals(R.drawable.icon_yuan, TransformState.getResourceId(getContext().getResources(), source));
+        assertEquals(0, TransformState.getResourceId(getContext().getResources(), CUSTOM_SOURCE));
+        assertNull(TransformState.resourceSource(getContext().getResources(), 0));
+    }
+
+    public void testRestoresResourceAndCustomStickers() {
+        StickerCanvasView view = new StickerCanvasView(getContext());
+        Sticker resource = view.addStickerResource(R.drawable.icon_yuan);
+        view.setStickerCenter(resource, 100, 200);
+        Sticker custom = view.addSticker(mBitmap, CUSTOM_SOURCE);
+        view.setStickerCenter(custom, 300, 400);
+        view.setStickerDegree(custom, 30);
+        view.setStickerScale(custom, 1.5f);
+        view.setStickerFlipped(custom, true);
+        // 没有引用的贴图无法恢复
+        view.addSticker(mBitmap);
+
+        Parcelable state = parcel(view.onSaveInstanceState());
+
+        StickerCanvasView restored = new StickerCanvasView(getContext());
+        final String[] resolved = new String[1];
+        restored.setSourceResolver(new StickerCanvasView.SourceResolver() {
+            @Override
+            public Bitmap resolveSource(String source) {
+                resolved[0] = source;
+                return mBitmap;
+            }
+        });
+        restored.onRestoreInstanceState(state);
+
+        assertEquals(CUSTOM_SOURCE, resolved[0]);
+        assertEquals(2, restored.getStickerCount());
+        assertSameState(resource.getTransformState(), restored.getStickerAt(0).getTransformState());
+        assertSameState(custom.getTransformState(), restored.getStickerAt(1).getTransformState());
+        assertSame(mBitmap, restored.getStickerAt(1).getBitmap());
+    }
+
+    public void testRestoresPackStickerFromReopenedPack() throws IOException {
+        StickerPack pack = StickerPack.open(mPackFile);
+        StickerCanvasView view = new StickerCanvasView(getContext());
+        Sticker sticker = view.addStickerFromPack(pack, pack.indexOf("blue"));
+        view.setStickerCenter(sticker, 50, 60);
+        view.setStickerDegree(sticker, 90);
+        assertEquals(pack.sourceOf(pack.indexOf("blue")), sticker.getTransformState().getSource());
+
+        Parcelable state = parcel(view.onSaveInstanceState());
+
+        // 进程被杀后重新打开同一个文件，在恢复之前注册
+        StickerPack reopened = StickerPack.open(mPackFile);
+        StickerCanvasView restored = new StickerCanvasView(getContext());
+        restored.registerStickerPack(reopened);
+        restored.onRestoreInstanceState(state);
+
+        assertEquals(1, restored.getStickerCount());
+        Sticker restoredSticker = restored.getStickerAt(0);
+        assertSameState(sticker.getTransformState(), restoredSticker.getTransformState());
+        assertEquals(8, restoredSticker.getBitmap().getWidth());
+        assertEquals(Color.BLUE, restoredSticker.getBitmap().getPixel(0, 0));
+        restored.clearStickers();
+        view.clearStickers();
+    }
+
+    public void testIndexOfSourceRejectsOtherPacks() throws IOException {
+        StickerPack pack = StickerPack.open(mPackFile);
+        assertEquals(pack.indexOf("red"), pack.indexOfSource(pack.sourceOf(pack.indexOf("red"))));
+        assertEquals(-1, pack.indexOfSource(BitmapCache.packKey("/other.pack", "red")));
+        assertEquals(-1, pack.indexOfSource(pack.sourceOf(0) + "x"));
+        assertEquals(-1, pack.indexOfSource(CUSTOM_SOURCE));
+    }
+
+    public void testPackRejectsUnknownConfig() throws IOException {
+        // 第一个贴图的config字节：头部9字节，名字长度2字节和"red"，宽、高各4字节
+        RandomAccessFile file = new RandomAccessFile(mPackFile, "rw");
+        try {
+            file.seek(4 + 1 + 4 + 2 + 3 + 4 + 4);
+            file.writeByte(7);
+        } finally {
+            file.close();
+        }
+        try {
+            StickerPack.open(mPackFile);
+            fail("unknown config accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testSkipsUnresolvedCustomSticker() {
+        StickerCanvasView view = new StickerCanvasView(getContext());
+        view.addStickerResource(R.drawable.icon_yuan);
+        view.addSticker(mBitmap, CUSTOM_SOURCE);
+        List<TransformState> states = view.getStickerStates();
+
+        // 没有设置SourceResolver时只能恢复资源
+        StickerCanvasView restored = new StickerCanvasView(getContext());
+        assertEquals(1, restored.setStickerStates(states));
+    }
+
+    public void testBinaryAndJsonKeepSource() throws Exception {
+        StickerCanvasView view = new StickerCanvasView(getContext());
+        view.addStickerResource(R.drawable.icon_yuan);
+        Sticker custom = view.addSticker(mBitmap, CUSTOM_SOURCE);
+        view.setStickerDegree(custom, 45);
+        view.addSticker(mBitmap);
+        List<TransformState> states = view.getStickerStates();
+
+        List<TransformState> fromBytes = TransformState.fromBytes(TransformState.toBytes(states));
+        List<TransformState> fromJson = TransformState.fromJson(TransformState.toJson(states));
+        assertEquals(states.size(), fromBytes.size());
+        assertEquals(states.size(), fromJson.size());
+        for (int i = 0; i < states.size(); i++) {
+            assertSameState(states.get(i), fromBytes.get(i));
+            assertSameState(states.get(i), fromJson.get(i));
+        }
+        assertNull(fromBytes.get(2).getSource());
+    }
+
+    /**
+     * 经过Parcel写入、读出，与进程被杀后恢复时相同
+     */
+    private static Parcelable parcel(Parcelable state) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(state, 0);
+            parcel.setDataPosition(0);
+            return parcel.readParcelable(StickerCanvasView.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void assertSameState(TransformState expected, TransformState actual) {
+        assertEquals(expected.getSource(), actual.getSource());
+        assertEquals(expected.getCenterX(), actual.getCenterX(), 1e-3f);
+        assertEquals(expected.getCenterY(), actual.getCenterY(), 1e-3f);
+        assertEquals(expected.getDegree(), actual.getDegree(), 1e-3f);
+        assertEquals(expected.getScale(), actual.getScale(), 1e-3f);
+        assertEquals(expected.isFlipped(), actual.isFlipped());
+    }
+}
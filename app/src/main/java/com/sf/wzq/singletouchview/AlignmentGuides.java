@@ -0,0 +1,168 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ * 拖动时的对齐参考线。拖动开始时把父布局(画布)和其它贴图的左、中、右以及上、中、下
+ * 分别放进两张排好序的表，拖动中每个采样点只对被拖动贴图的三条竖边、三条横边各做一次二分查找，
+ * 贴图再多也是对数时间，并且不分配对象。
+ * <p>
+ * 吸附只修改显示的位置，调用者需要自己保存手指拖出的原始中心点，否则贴图会被吸住拖不出去。
+ */
+class AlignmentGuides {
+    /**
+     * 没有参考线
+     */
+    static final float NONE = Float.NaN;
+
+    private float[] mXs = new float[24];
+    private float[] mYs = new float[24];
+    private int mCount;
+    /**
+     * 距离小于这个值时吸附，单位px
+     */
+    private float mThreshold;
+    /**
+     * 最近一次snap的偏移和正在显示的参考线，没有时为NONE
+     */
+    private float mSnapDx, mSnapDy;
+    private float mGuideX = NONE, mGuideY = NONE;
+
+    AlignmentGuides(float threshold) {
+        mThreshold = threshold;
+    }
+
+    float getThreshold() {
+        return mThreshold;
+    }
+
+    /**
+     * 修改吸附距离，下一个采样点开始生效
+     */
+    void setThreshold(float threshold) {
+        mThreshold = threshold;
+    }
+
+    /**
+     * 清空所有边和正在显示的参考线
+     */
+    void clear() {
+        mCount = 0;
+        mSnapDx = 0;
+        mSnapDy = 0;
+        mGuideX = NONE;
+        mGuideY = NONE;
+    }
+
+    /**
+     * 添加一个参考对象的外接矩形，全部添加完后调用sort()
+     */
+    void add(float left, float top, float right, float bottom) {
+        if (mCount * 3 + 3 > mXs.length) {
+            mXs = Arrays.copyOf(mXs, mXs.length * 2);
+            mYs = Arrays.copyOf(mYs, mYs.length * 2);
+        }
+        int i = mCount * 3;
+        mXs[i] = left;
+        mXs[i + 1] = (left + right) / 2;
+        mXs[i + 2] = right;
+        mYs[i] = top;
+        mYs[i + 1] = (top + bottom) / 2;
+        mYs[i + 2] = bottom;
+        mCount++;
+    }
+
+    void sort() {
+        Arrays.sort(mXs, 0, mCount * 3);
+        Arrays.sort(mYs, 0, mCount * 3);
+    }
+
+    /**
+     * 计算中心点为(centerX, centerY)、外接矩形宽高一半为halfWidth, halfHeight的贴图需要的吸附偏移，
+     * 结果通过getSnapDx()、getSnapDy()取得
+     *
+     * @return 显示的参考线是否有变化，有变化时需要重绘参考线
+     */
+    boolean snap(float centerX, float centerY, float halfWidth, float halfHeight) {
+        int size = mCount * 3;
+        float guideX = NONE, guideY = NONE;
+        float bestX = mThreshold, bestY = mThreshold;
+        mSnapDx = 0;
+        mSnapDy = 0;
+        for (int edge = -1; edge <= 1; edge++) {
+            float x = centerX + edge * halfWidth;
+            float nearestX = nearest(mXs, size, x);
+            if (Math.abs(nearestX - x) <= bestX) {
+                bestX = Math.abs(nearestX - x);
+                mSnapDx = nearestX - x;
+                guideX = nearestX;
+            }
+            float y = centerY + edge * halfHeight;
+            float nearestY = nearest(mYs, size, y);
+            if (Math.abs(nearestY - y) <= bestY) {
+                bestY = Math.abs(nearestY - y);
+                mSnapDy = nearestY - y;
+                guideY = nearestY;
+            }
+        }
+        boolean changed = !same(guideX, mGuideX) || !same(guideY, mGuideY);
+        mGuideX = guideX;
+        mGuideY = guideY;
+        return changed;
+    }
+
+    /**
+     * 有序数组values的前size个中与value最接近的值，没有时返回NaN(与任何数的距离比较都是false)
+     */
+    private static float nearest(float[] values, int size, float value) {
+        if (size == 0) return Float.NaN;
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) return values[index];
+        int insertion = -index - 1;
+        if (insertion == 0) return values[0];
+        if (insertion == size) return values[size - 1];
+        float before = values[insertion - 1];
+        float after = values[insertion];
+        return value - before <= after - value ? before : after;
+    }
+
+    private static boolean same(float a, float b) {
+        return a == b || (a != a && b != b);
+    }
+
+    float getSnapDx() {
+        return mSnapDx;
+    }
+
+    float getSnapDy() {
+        return mSnapDy;
+    }
+
+    /**
+     * 画出正在显示的参考线，竖线和横线分别贯穿width, height
+     */
+    void draw(Canvas canvas, Paint paint, float width, float height) {
+        if (!Float.isNaN(mGuideX)) {
+            canvas.drawLine(mGuideX, 0, mGuideX, height, paint);
+        }
+        if (!Float.isNaN(mGuideY)) {
+            canvas.drawLine(0, mGuideY, width, mGuideY, paint);
+        }
+    }
+
+    /**
+     * 将正在显示的参考线占用的区域并入rect，stroke为线宽的一半加上抗锯齿的余量
+     */
+    void union(Rect rect, int width, int height, int stroke) {
+        if (!Float.isNaN(mGuideX)) {
+            rect.union((int) mGuideX - stroke, 0, (int) Math.ceil(mGuideX) + stroke, height);
+        }
+        if (!Float.isNaN(mGuideY)) {
+            rect.union(0, (int) mGuideY - stroke, width, (int) Math.ceil(mGuideY) + stroke);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.sf.wzq.singletouchview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 进程内共享的贴图Bitmap缓存。
+ * 正在被View使用的Bitmap带引用计数，放在mActive中，不会被淘汰；
+ * 引用计数降为0后移入按字节数限制大小的LRU缓存，再次使用时可以直接取回，超出大小时淘汰最久未使用的。
+ * 所有方法都是线程安全的，OnTrimMemoryListener的添加、移除除外，只在主线程中调用。
+ */
+public class BitmapCache {
+    /**
+     * 默认使用最大可用内存的1/8作为LRU缓存的大小
+     */
+    private static final int DEFAULT_MEMORY_FRACTION = 8;
+
+    private static BitmapCache sInstance;
+
+    /**
+     * 正在使用的Bitmap
+     */
+    private final HashMap<String, Entry> mActive = new HashMap<String, Entry>();
+    /**
+     * 没有被使用的Bitmap，按字节数限制大小
+     */
+    private final LruCache<String, Bitmap> mLruCache;
+
+    /**
+     * 内存不足时需要释放Bitmap的使用者，通常是在窗口中的View
+     */
+    private final List<OnTrimMemoryListener> mTrimListeners = new ArrayList<OnTrimMemoryListener>();
+    /**
+     * 整个进程只向Application注册一次的回调，先通知所有使用者释放，再缩减缓存
+     */
+    private final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            dispatchTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            dispatchTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+    private boolean mTrimCallbacksRegistered;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * 系统内存不足时的回调，在主线程中调用，之后BitmapCache会按同一个level缩减LRU缓存
+     */
+    public interface OnTrimMemoryListener {
+        /**
+         * @param level ComponentCallbacks2.onTrimMemory的参数，onLowMemory时为TRIM_MEMORY_COMPLETE
+         */
+        void onTrimMemory(int level);
+    }
+
+    private static class Entry {
+        final Bitmap bitmap;
+        int refCount;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    public BitmapCache(int maxBytes) {
+        mLruCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    synchronized (BitmapCache.this) {
+                        mEvictionCount++;
+                    }
+                }
+            }
+        };
+    }
+
+    public static synchronized BitmapCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapCache((int) (Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION));
+        }
+        return sInstance;
+    }
+
+    /**
+     * 位图资源按采样率解码(inScaled = false，不做密度缩放)的缓存key
+     */
+    public static String resourceKey(int resId, int sampleSize) {
+        return "res:" + resId + "/" + sampleSize;
+    }
+
+    /**
+     * 位图资源按BitmapFactory.decodeResource默认的方式缩放到屏幕密度densityDpi后的缓存key，
+     * 与不缩放的resourceKey(resId, 1)区分，两种解码的大小在非mdpi的设备上不同
+     */
+    public static String scaledResourceKey(int resId, int densityDpi) {
+        return "res:" + resId + "@" + densityDpi + "dpi";
+    }
+
+    /**
+     * 非位图资源光栅化成width * height的Bitmap的缓存key
+     */
+    public static String resourceKey(int resId, int width, int height) {
+        return "res:" + resId + "@" + width + "x" + height;
+    }
+
+    /**
+     * 同一图片按不同Config解码时使用不同的key，ARGB_8888(以及null)保持原来的key
+     */
+    public static String withConfig(String key, Bitmap.Config config) {
+        return config == null || config == Bitmap.Config.ARGB_8888 ? key : key + ":" + config.name();
+    }
+
+    /**
+     * 贴图集文件中名为name的贴图的缓存key
+     */
+    public static String packKey(String packPath, String name) {
+        return "pack:" + packPath + "#" + name;
+    }
+
+    /**
+     * 获取key对应的Bitmap并将引用计数加1，没有时返回null。
+     * 取到的Bitmap不再使用时必须调用release(key)
+     */
+    public synchronized Bitmap acquire(String key) {
+        Entry entry = mActive.get(key);
+        if (entry == null) {
+            Bitmap bitmap = mLruCache.remove(key);
+            if (bitmap == null) {
+                mMissCount++;
+                return null;
+            }
+            entry = new Entry(bitmap);
+            mActive.put(key, entry);
+        }
+        mHitCount++;
+        entry.refCount++;
+        return entry.bitmap;
+    }
+
+    /**
+     * 放入一个刚解码的Bitmap并将其引用计数设为1。
+     * 如果其他地方已经放入了同一个key，返回已有的Bitmap(引用计数加1)，传入的bitmap不会被缓存
+     */
+    public synchronized Bitmap put(String key, Bitmap bitmap) {
+        Entry entry = mActive.get(key);
+        if (entry == null) {
+            Bitmap cached = mLruCache.remove(key);
+            entry = new Entry(cached != null ? cached : bitmap);
+            mActive.put(key, entry);
+        }
+        entry.refCount++;
+        return entry.bitmap;
+    }
+
+    /**
+     * 释放一次对key的引用，引用计数为0时移入LRU缓存
+     */
+    public synchronized void release(String key) {
+        Entry entry = mActive.get(key);
+        if (entry == null) return;
+        if (--entry.refCount <= 0) {
+            mActive.remove(key);
+            mLruCache.put(key, entry.bitmap);
+        }
+    }
+
+    /**
+     * 清空没有被使用的Bitmap
+     */
+    public void evictAll() {
+        mLruCache.evictAll();
+    }
+
+    /**
+     * 将没有被使用的Bitmap缩减到maxBytes以内
+     */
+    public void trimToSize(int maxBytes) {
+        mLruCache.trimToSize(maxBytes);
+    }
+
+    /**
+     * 按系统内存紧张的程度缩减没有被使用的Bitmap，level为ComponentCallbacks2.onTrimMemory的参数。
+     * 界面不可见时全部清空，运行中内存不足时缩减到一半
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(getMaxCachedBytes() / 2);
+        }
+    }
+
+    /**
+     * 添加内存不足时的回调。第一次添加时向Application注册ComponentCallbacks2，之后不再注销
+     */
+    public void addOnTrimMemoryListener(Context context, OnTrimMemoryListener listener) {
+        if (!mTrimCallbacksRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(mTrimCallbacks);
+            mTrimCallbacksRegistered = true;
+        }
+        if (!mTrimListeners.contains(listener)) {
+            mTrimListeners.add(listener);
+        }
+    }
+
+    public void removeOnTrimMemoryListener(OnTrimMemoryListener listener) {
+        mTrimListeners.remove(listener);
+    }
+
+    /**
+     * 先让使用者释放(释放的Bitmap进入LRU缓存)，再一起缩减。倒序遍历，回调中可以移除自己
+     */
+    private void dispatchTrimMemory(int level) {
+        for (int i = mTrimListeners.size() - 1; i >= 0; i--) {
+            if (i < mTrimListeners.size()) {
+                mTrimListeners.get(i).onTrimMemory(level);
+            }
+        }
+        trimMemory(level);
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 正在被使用的Bitmap个数
+     */
+    public synchronized int getActiveCount() {
+        return mActive.size();
+    }
+
+    /**
+     * LRU缓存中没有被使用的Bitmap的总字节数
+     */
+    public int getCachedBytes() {
+        return mLruCache.size();
+    }
+
+    public int getMaxCachedBytes() {
+        return mLruCache.maxSize();
+    }
+}
@@ -0,0 +1,118 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在固定数量的后台线程中解码Bitmap，解码结果在主线程回调。
+ * 任务可以取消，取消后即使已经解码完成也不会再回调。
+ */
+public class BitmapLoader {
+    /**
+     * 解码线程数，最多2个，避免和UI线程抢CPU
+     */
+    private static final int THREAD_COUNT = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final ExecutorService sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "BitmapLoader #" + mCount.incrementAndGet());
+        }
+    });
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 在后台线程中执行的解码操作
+     */
+    public interface Decoder {
+        Bitmap decode();
+    }
+
+    /**
+     * 解码完成后在主线程的回调，解码失败时bitmap为null
+     */
+    public interface Callback {
+        void onLoaded(Bitmap bitmap);
+    }
+
+    private BitmapLoader() {
+    }
+
+    /**
+     * 提交一个解码任务
+     */
+    public static Task load(Decoder decoder, Callback callback) {
+        Task task = new Task(decoder, callback);
+        task.mFuture = sExecutor.submit(task);
+        return task;
+    }
+
+    /**
+     * 一个解码任务，只能在主线程中取消
+     */
+    public static class Task implements Runnable {
+        private final Decoder mDecoder;
+        private final Callback mCallback;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        private Task(Decoder decoder, Callback callback) {
+            mDecoder = decoder;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) return;
+            Bitmap bitmap;
+            try {
+                bitmap = mDecoder.decode();
+            } catch (OutOfMemoryError e) {
+                bitmap = null;
+            }
+            final Bitmap result = bitmap;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onLoaded(result);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 取消任务，还没开始的任务不会再执行，已经完成的任务不会再回调
+         */
+        public void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+}
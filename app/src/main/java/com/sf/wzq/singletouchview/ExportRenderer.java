@@ -0,0 +1,474 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把编辑结果按输出分辨率重新绘制一遍，用于导出。
+ * 贴图的变换(中心点、角度、缩放比例)在创建时复制一份，之后View继续编辑不会影响导出。
+ * 贴图坐标系按同一个缩放比例放进输出，宽高比不同时居中，多出的边用背景色填充，贴图不会被拉伸。
+ * 输出按tileSize * tileSize的块在后台线程中逐块绘制，每块画完交给TileWriter。
+ * 贴图在每一块中按输出需要的分辨率解码(LayerSource可以只解码这一块需要的区域)，画完即释放，
+ * 只有返回整张图片的贴图会保留一个给相邻的块继续使用，所以同一时间只占用一块、一个贴图和一个区域的内存，
+ * 背景使用BitmapRegionDecoder时也只解码这一块需要的区域，并按输出的分辨率降采样。进度和结果在主线程回调，
+ * 任何异常都按失败结束。
+ */
+public class ExportRenderer {
+    /**
+     * 默认的块大小，ARGB_8888时一块占用1MB
+     */
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 贴图坐标系(SingleTouchView的父布局、StickerCanvasView)的宽高
+     */
+    private final int mSceneWidth, mSceneHeight;
+    /**
+     * 输出的宽高
+     */
+    private final int mOutputWidth, mOutputHeight;
+    /**
+     * 贴图坐标系到输出的缩放比例和居中的偏移
+     */
+    private final float mScale;
+    private final float mOffsetX, mOffsetY;
+    private int mTileSize = DEFAULT_TILE_SIZE;
+    private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    private int mBackgroundColor = Color.TRANSPARENT;
+    /**
+     * 背景图，铺满整个输出，两者最多设置一个
+     */
+    private Bitmap mBackgroundBitmap;
+    private BitmapRegionDecoder mBackgroundDecoder;
+    private final List<Layer> mLayers = new ArrayList<Layer>();
+
+    /**
+     * 接收绘制好的块，在后台线程中调用。
+     * tile在下一块开始绘制时会被复用，只有(0, 0, width, height)的部分有效，需要保留时必须在返回前复制
+     */
+    public interface TileWriter {
+        void writeTile(Bitmap tile, int left, int top, int width, int height) throws IOException;
+    }
+
+    /**
+     * 导出的进度和结果，在主线程回调
+     */
+    public interface Callback {
+        void onProgress(int finishedTiles, int totalTiles);
+
+        /**
+         * 导出结束，取消后不会回调
+         *
+         * @param success 是否全部绘制完成，解码或写入失败、内存不足时为false
+         */
+        void onFinished(boolean success);
+    }
+
+    /**
+     * 贴图的像素来源，在导出线程中调用
+     */
+    public interface LayerSource {
+        /**
+         * 解码图片中region的部分，分辨率不低于每个显示像素scale个像素
+         *
+         * @param scale  输出中图片的一个显示像素(缩放比例为1时的一个像素)对应的输出像素数
+         * @param region 需要的区域，图片的显示坐标(0..width, 0..height)。
+         *               返回的图片对应的区域与它不同时(如返回整张图片)，需要改成实际的区域
+         * @return 解码失败时返回null
+         */
+        Bitmap decode(float scale, RectF region);
+
+        /**
+         * decode返回的图片不再使用
+         */
+        void release(Bitmap bitmap);
+    }
+
+    /**
+     * 一个贴图：图片的来源和复制出来的变换
+     */
+    private static class Layer {
+        final LayerSource source;
+        final TransformEngine engine = new TransformEngine();
+        /**
+         * ALPHA_8的图片绘制时使用的颜色，其它图片不使用
+         */
+        final int tintColor;
+
+        Layer(LayerSource source, TransformEngine engine, int tintColor) {
+            this.source = source;
+            this.tintColor = tintColor;
+            this.engine.set(engine);
+            this.engine.update();
+        }
+    }
+
+    public ExportRenderer(int sceneWidth, int sceneHeight, int outputWidth, int outputHeight) {
+        if (sceneWidth <= 0 || sceneHeight <= 0 || outputWidth <= 0 || outputHeight <= 0) {
+            throw new IllegalArgumentException("scene and output size must be positive");
+        }
+        mSceneWidth = sceneWidth;
+        mSceneHeight = sceneHeight;
+        mOutputWidth = outputWidth;
+        mOutputHeight = outputHeight;
+        mScale = Math.min(outputWidth / (float) sceneWidth, outputHeight / (float) sceneHeight);
+        mOffsetX = (outputWidth - sceneWidth * mScale) / 2;
+        mOffsetY = (outputHeight - sceneHeight * mScale) / 2;
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    /**
+     * 贴图坐标系到输出的缩放比例，宽高两个方向相同
+     */
+    public float getScale() {
+        return mScale;
+    }
+
+    /**
+     * 设置块大小，决定导出时的内存占用
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize <= 0) throw new IllegalArgumentException("tileSize must be positive");
+        mTileSize = tileSize;
+    }
+
+    public void setConfig(Bitmap.Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * 设置背景色，也用于填充宽高比不同时多出的边
+     */
+    public void setBackgroundColor(int color) {
+        mBackgroundColor = color;
+    }
+
+    /**
+     * 设置铺满贴图坐标系的背景图
+     */
+    public void setBackground(Bitmap background) {
+        mBackgroundBitmap = background;
+        mBackgroundDecoder = null;
+    }
+
+    /**
+     * 设置铺满贴图坐标系的背景图，每块只解码需要的区域，适合比内存大得多的原图
+     */
+    public void setBackground(BitmapRegionDecoder background) {
+        mBackgroundDecoder = background;
+        mBackgroundBitmap = null;
+    }
+
+    /**
+     * 添加一个贴图，后添加的在上层
+     */
+    public void addLayer(Bitmap bitmap, TransformEngine engine) {
+        addLayer(bitmap, engine, Color.BLACK);
+    }
+
+    /**
+     * 添加一个贴图，bitmap为ALPHA_8时按tintColor着色
+     */
+    public void addLayer(final Bitmap bitmap, TransformEngine engine, int tintColor) {
+        final float width = engine.getImageWidth();
+        final float height = engine.getImageHeight();
+        addLayer(new LayerSource() {
+            @Override
+            public Bitmap decode(float scale, RectF region) {
+                region.set(0, 0, width, height);
+                return bitmap;
+            }
+
+            @Override
+            public void release(Bitmap bitmap) {
+            }
+        }, engine, tintColor);
+    }
+
+    /**
+     * 添加一个贴图，source在导出线程中按每一块需要的分辨率调用，可以解码出比屏幕上显示的分辨率更高的图片
+     */
+    public void addLayer(LayerSource source, TransformEngine engine) {
+        addLayer(source, engine, Color.BLACK);
+    }
+
+    /**
+     * 添加一个贴图，source解码出ALPHA_8的图片时按tintColor着色
+     */
+    public void addLayer(LayerSource source, TransformEngine engine, int tintColor) {
+        mLayers.add(new Layer(source, engine, tintColor));
+    }
+
+    /**
+     * 绘制到一个outputWidth * outputHeight的Bitmap中，只适合输出本身能放进内存的情况
+     */
+    public Task render(final Bitmap target, Callback callback) {
+        final Canvas canvas = new Canvas(target);
+        final Paint paint = new Paint();
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        return render(new TileWriter() {
+            @Override
+            public void writeTile(Bitmap tile, int left, int top, int width, int height) {
+                canvas.save();
+                canvas.clipRect(left, top, left + width, top + height);
+                canvas.drawBitmap(tile, left, top, paint);
+                canvas.restore();
+            }
+        }, callback);
+    }
+
+    /**
+     * 在后台线程中逐块绘制，每块交给writer。开始后不要再修改这个ExportRenderer
+     */
+    public Task render(TileWriter writer, Callback callback) {
+        final Task task = new Task(writer, callback);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                task.run();
+            }
+        }, "ExportRenderer");
+        thread.start();
+        return task;
+    }
+
+    /**
+     * 一次导出，可以在任意线程中取消
+     */
+    public class Task {
+        private final TileWriter mWriter;
+        private final Callback mCallback;
+        private volatile boolean mCancelled;
+
+        private Task(TileWriter writer, Callback callback) {
+            mWriter = writer;
+            mCallback = callback;
+        }
+
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private void run() {
+            boolean success = false;
+            try {
+                success = renderTiles();
+            } catch (IOException e) {
+                // 写入失败
+            } catch (OutOfMemoryError e) {
+                // 块或解码出的图片放不进内存
+            } catch (RuntimeException e) {
+                // 贴图源、背景解码器或TileWriter抛出的异常，如解码器已经被recycle
+            } finally {
+                postFinished(success);
+            }
+        }
+
+        private void postFinished(final boolean success) {
+            if (mCancelled) return;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onFinished(success);
+                    }
+                }
+            });
+        }
+
+        private boolean renderTiles() throws IOException {
+            int layerCount = mLayers.size();
+            int columns = (mOutputWidth + mTileSize - 1) / mTileSize;
+            int rows = (mOutputHeight + mTileSize - 1) / mTileSize;
+            final int total = columns * rows;
+            Bitmap tile = Bitmap.createBitmap(Math.min(mTileSize, mOutputWidth), Math.min(mTileSize, mOutputHeight), mConfig);
+            Canvas canvas = new Canvas(tile);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+            Matrix matrix = new Matrix();
+            float[] values = new float[9];
+            float[] imageRect = new float[4];
+            Rect src = new Rect();
+            RectF dst = new RectF();
+            RectF region = new RectF();
+            // 上一块解码出的整张图片，相邻的块还需要时不用重新解码，同一时间只保留一个
+            int heldLayer = -1;
+            Bitmap heldBitmap = null;
+            RectF heldRegion = new RectF();
+
+            try {
+                int finished = 0;
+                for (int row = 0; row < rows; row++) {
+                    for (int column = 0; column < columns; column++) {
+                        if (mCancelled) return false;
+                        int left = column * mTileSize;
+                        int top = row * mTileSize;
+                        int width = Math.min(mTileSize, mOutputWidth - left);
+                        int height = Math.min(mTileSize, mOutputHeight - top);
+
+                        tile.eraseColor(mBackgroundColor);
+                        canvas.save();
+                        canvas.clipRect(0, 0, width, height);
+                        canvas.translate(-left, -top);
+                        paint.setColor(Color.BLACK);
+                        drawBackground(canvas, paint, left, top, width, height, src, dst);
+
+                        for (int i = 0; i < layerCount; i++) {
+                            Layer layer = mLayers.get(i);
+                            TransformEngine engine = layer.engine;
+                            // 贴图在输出坐标系中的外接矩形与这一块不相交时跳过
+                            float centerX = engine.getCenterX() * mScale + mOffsetX;
+                            float centerY = engine.getCenterY() * mScale + mOffsetY;
+                            float halfWidth = engine.getHalfBoundsWidth() * mScale;
+                            float halfHeight = engine.getHalfBoundsHeight() * mScale;
+                            if (centerX + halfWidth < left || centerX - halfWidth > left + width
+                                    || centerY + halfHeight < top || centerY - halfHeight > top + height) {
+                                continue;
+                            }
+                            Bitmap source;
+                            if (i == heldLayer) {
+                                source = heldBitmap;
+                                region.set(heldRegion);
+                            } else {
+                                // 这一块在图片显示坐标中对应的区域
+                                engine.mapRectToImage((left - mOffsetX) / mScale, (top - mOffsetY) / mScale,
+                                        (left + width - mOffsetX) / mScale, (top + height - mOffsetY) / mScale, imageRect);
+                                // 四周多留一个像素给插值
+                                region.set(Math.max(0, imageRect[0] - 1), Math.max(0, imageRect[1] - 1),
+                                        Math.min(engine.getImageWidth(), imageRect[2] + 1),
+                                        Math.min(engine.getImageHeight(), imageRect[3] + 1));
+                                if (region.isEmpty()) continue;
+                                source = layer.source.decode(engine.getScale() * mScale, region);
+                                if (source == null) return false;
+                                if (region.left <= 0 && region.top <= 0
+                                        && region.right >= engine.getImageWidth() && region.bottom >= engine.getImageHeight()) {
+                                    if (heldBitmap != null) {
+                                        mLayers.get(heldLayer).source.release(heldBitmap);
+                                    }
+                                    heldLayer = i;
+                                    heldBitmap = source;
+                                    heldRegion.set(region);
+                                }
+                            }
+
+                            // 图片的单位正方形画到变换后的位置，再换算到region，最后放进输出
+                            engine.getMatrixValues(values, 1, 1, engine.getCenterX(), engine.getCenterY());
+                            matrix.setValues(values);
+                            matrix.preTranslate(region.left / engine.getImageWidth(), region.top / engine.getImageHeight());
+                            matrix.preScale(region.width() / engine.getImageWidth() / source.getWidth(),
+                                    region.height() / engine.getImageHeight() / source.getHeight());
+                            matrix.postScale(mScale, mScale);
+                            matrix.postTranslate(mOffsetX, mOffsetY);
+                            // 只有ALPHA_8按着色的颜色绘制，其它图片的颜色不透明，不受着色颜色中alpha的影响
+                            paint.setColor(source.getConfig() == Bitmap.Config.ALPHA_8 ? layer.tintColor : Color.BLACK);
+                            canvas.drawBitmap(source, matrix, paint);
+                            if (source != heldBitmap) {
+                                layer.source.release(source);
+                            }
+                        }
+                        canvas.restore();
+
+                        mWriter.writeTile(tile, left, top, width, height);
+                        postProgress(++finished, total);
+                    }
+                }
+            } finally {
+                tile.recycle();
+                if (heldBitmap != null) {
+                    mLayers.get(heldLayer).source.release(heldBitmap);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 画出背景中落在这一块(输出坐标系)中的部分，背景铺满贴图坐标系在输出中的区域
+         */
+        private void drawBackground(Canvas canvas, Paint paint, int left, int top, int width, int height,
+                                    Rect src, RectF dst) {
+            float contentLeft = mOffsetX;
+            float contentTop = mOffsetY;
+            float contentWidth = mSceneWidth * mScale;
+            float contentHeight = mSceneHeight * mScale;
+            if (mBackgroundBitmap != null) {
+                dst.set(contentLeft, contentTop, contentLeft + contentWidth, contentTop + contentHeight);
+                canvas.drawBitmap(mBackgroundBitmap, null, dst, paint);
+            } else if (mBackgroundDecoder != null) {
+                int backgroundWidth = mBackgroundDecoder.getWidth();
+                int backgroundHeight = mBackgroundDecoder.getHeight();
+                float scaleX = contentWidth / backgroundWidth;
+                float scaleY = contentHeight / backgroundHeight;
+                // 背景中对应的区域，向外取整并留出1像素给插值
+                src.set(Math.max(0, (int) Math.floor((left - contentLeft) / scaleX) - 1),
+                        Math.max(0, (int) Math.floor((top - contentTop) / scaleY) - 1),
+                        Math.min(backgroundWidth, (int) Math.ceil((left + width - contentLeft) / scaleX) + 1),
+                        Math.min(backgroundHeight, (int) Math.ceil((top + height - contentTop) / scaleY) + 1));
+                if (src.isEmpty()) return;
+                // 与TiledSource相同，按2的幂降采样，分辨率不低于输出需要的
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sampleSizeFor(Math.max(scaleX, scaleY), src);
+                // 起点对齐到采样的倍数，解码出的每个像素正好对应src中inSampleSize个像素
+                src.left -= src.left % options.inSampleSize;
+                src.top -= src.top % options.inSampleSize;
+                Bitmap region = mBackgroundDecoder.decodeRegion(src, options);
+                if (region == null) return;
+                dst.set(contentLeft + src.left * scaleX, contentTop + src.top * scaleY,
+                        contentLeft + src.right * scaleX, contentTop + src.bottom * scaleY);
+                canvas.drawBitmap(region, null, dst, paint);
+                region.recycle();
+            }
+        }
+
+        /**
+         * 背景的一个像素对应ratio个输出像素时使用的采样率，降采样后每个像素仍然不少于一个输出像素，区域至少保留一个像素
+         */
+        private int sampleSizeFor(float ratio, Rect src) {
+            int sampleSize = 1;
+            while (ratio * sampleSize * 2 <= 1f
+                    && src.width() >= sampleSize * 2 && src.height() >= sampleSize * 2) {
+                sampleSize *= 2;
+            }
+            return sampleSize;
+        }
+
+        private void postProgress(final int finished, final int total) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onProgress(finished, total);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.sf.wzq.singletouchview;
+
+/**
+ * SingleTouchView.OnMetricsListener的默认实现，记录触摸到刷新的延迟、绘制耗时的直方图和手势中的掉帧数。
+ * 直方图的桶按毫秒划分：[0, 0.5), [0.5, 1), [1, 2), [2, 4), [4, 8), [8, 16), [16, 32), [32, ∞)。
+ * 只在UI线程中使用，记录时不分配对象。
+ */
+public class GestureFrameStats implements SingleTouchView.OnMetricsListener {
+    /**
+     * 直方图每个桶的上界，单位纳秒
+     */
+    private static final long[] BUCKET_UPPER_BOUNDS = {
+            500000L, 1000000L, 2000000L, 4000000L, 8000000L, 16000000L, 32000000L, Long.MAX_VALUE
+    };
+
+    private final int[] mTouchLatencyHistogram = new int[BUCKET_UPPER_BOUNDS.length];
+    private final int[] mDrawDurationHistogram = new int[BUCKET_UPPER_BOUNDS.length];
+    private int mTouchCount;
+    private long mTouchLatencySum;
+    private long mMaxTouchLatency;
+    private int mDrawCount;
+    private long mDrawDurationSum;
+    private long mMaxDrawDuration;
+    private int mGestureFrames;
+    private int mDroppedFrames;
+
+    @Override
+    public void onTouchHandled(int action, long latencyNanos) {
+        mTouchLatencyHistogram[bucketOf(latencyNanos)]++;
+        mTouchCount++;
+        mTouchLatencySum += latencyNanos;
+        mMaxTouchLatency = Math.max(mMaxTouchLatency, latencyNanos);
+    }
+
+    @Override
+    public void onDrawn(long durationNanos) {
+        mDrawDurationHistogram[bucketOf(durationNanos)]++;
+        mDrawCount++;
+        mDrawDurationSum += durationNanos;
+        mMaxDrawDuration = Math.max(mMaxDrawDuration, durationNanos);
+    }
+
+    @Override
+    public void onGestureFrame(long frameTimeNanos, int droppedFrames) {
+        mGestureFrames++;
+        mDroppedFrames += droppedFrames;
+    }
+
+    private static int bucketOf(long nanos) {
+        int bucket = 0;
+        while (nanos >= BUCKET_UPPER_BOUNDS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * 触摸延迟直方图，返回的是副本
+     */
+    public int[] getTouchLatencyHistogram() {
+        return mTouchLatencyHistogram.clone();
+    }
+
+    /**
+     * 绘制耗时直方图，返回的是副本
+     */
+    public int[] getDrawDurationHistogram() {
+        return mDrawDurationHistogram.clone();
+    }
+
+    public int getTouchCount() {
+        return mTouchCount;
+    }
+
+    public long getAverageTouchLatencyNanos() {
+        return mTouchCount == 0 ? 0 : mTouchLatencySum / mTouchCount;
+    }
+
+    public long getMaxTouchLatencyNanos() {
+        return mMaxTouchLatency;
+    }
+
+    public int getDrawCount() {
+        return mDrawCount;
+    }
+
+    public long getAverageDrawDurationNanos() {
+        return mDrawCount == 0 ? 0 : mDrawDurationSum / mDrawCount;
+    }
+
+    public long getMaxDrawDurationNanos() {
+        return mMaxDrawDuration;
+    }
+
+    /**
+     * 手势进行中经过的帧数，包括只改变位置、没有调用onDraw的帧
+     */
+    public int getGestureFrames() {
+        return mGestureFrames;
+    }
+
+    public int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_UPPER_BOUNDS.length; i++) {
+            mTouchLatencyHistogram[i] = 0;
+            mDrawDurationHistogram[i] = 0;
+        }
+        mTouchCount = 0;
+        mTouchLatencySum = 0;
+        mMaxTouchLatency = 0;
+        mDrawCount = 0;
+        mDrawDurationSum = 0;
+        mMaxDrawDuration = 0;
+        mGestureFrames = 0;
+        mDroppedFrames = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GestureFrameStats{touch=" + mTouchCount
+                + ", avgTouchLatencyUs=" + getAverageTouchLatencyNanos() / 1000
+                + ", maxTouchLatencyUs=" + mMaxTouchLatency / 1000
+                + ", draw=" + mDrawCount
+                + ", avgDrawUs=" + getAverageDrawDurationNanos() / 1000
+                + ", maxDrawUs=" + mMaxDrawDuration / 1000
+                + ", gestureFrames=" + mGestureFrames
+                + ", droppedFrames=" + mDroppedFrames + "}";
+    }
+}
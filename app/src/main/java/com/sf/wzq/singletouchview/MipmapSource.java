@@ -0,0 +1,302 @@
+package com.sf.wzq.singletouchview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按缩放比例解码图片资源的图片源。
+ * 根据当前的缩放比例选择2的幂次的采样率(inSampleSize)解码，缩小时只解码需要的分辨率，
+ * 放大时再换成分辨率更高的一级。最多同时保留MAX_RESIDENT_LEVELS级，其余的释放掉。
+ * 解码结果放在共享的BitmapCache中，多个View使用同一资源的同一级时共享同一个Bitmap。
+ */
+public class MipmapSource {
+    /**
+     * 最大的采样率级别，对应 1 << MAX_LEVEL
+     */
+    public static final int MAX_LEVEL = 4;
+    /**
+     * 同时保留在内存中的级别数
+     */
+    public static final int MAX_RESIDENT_LEVELS = 2;
+
+    private final Resources mResources;
+    private final int mResId;
+    /**
+     * 资源原始的像素宽高
+     */
+    private final int mRawWidth, mRawHeight;
+    /**
+     * 按屏幕密度换算后的宽高，和getDrawable(resId)得到的大小一致
+     */
+    private final int mWidth, mHeight;
+    /**
+     * 资源是否一定不透明(JPEG)
+     */
+    private final boolean mOpaque;
+    /**
+     * 解码使用的Config，null时为BitmapFactory默认的ARGB_8888
+     */
+    private Bitmap.Config mConfig;
+    /**
+     * 每一级解码出来的Bitmap，下标为级别，第n级的采样率为 1 << n
+     */
+    private final Bitmap[] mLevels = new Bitmap[MAX_LEVEL + 1];
+    /**
+     * 每一级最近一次使用的序号，用于决定释放哪一级
+     */
+    private final long[] mLastUsed = new long[MAX_LEVEL + 1];
+    private long mUseCounter;
+
+    /**
+     * 异步解码某一级完成后在主线程的回调，解码失败时bitmap为null
+     */
+    public interface LevelCallback {
+        void onLevelLoaded(int level, Bitmap bitmap);
+    }
+
+    private MipmapSource(Resources resources, int resId, int rawWidth, int rawHeight, int width, int height,
+                         boolean opaque) {
+        mResources = resources;
+        mResId = resId;
+        mRawWidth = rawWidth;
+        mRawHeight = rawHeight;
+        mWidth = width;
+        mHeight = height;
+        mOpaque = opaque;
+    }
+
+    /**
+     * 读取资源的大小创建图片源，资源不是位图(如shape、selector)时返回null
+     */
+    public static MipmapSource fromResource(Resources resources, int resId) {
+        TypedValue value = new TypedValue();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream is = null;
+        try {
+            is = resources.openRawResource(resId, value);
+            BitmapFactory.decodeStream(is, null, options);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        } finally {
+            closeQuietly(is);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        // 与BitmapFactory.decodeResource相同的密度换算
+        int density = value.density;
+        if (density == TypedValue.DENSITY_DEFAULT) {
+            density = DisplayMetrics.DENSITY_DEFAULT;
+        }
+        int targetDensity = resources.getDisplayMetrics().densityDpi;
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (density != TypedValue.DENSITY_NONE && density != targetDensity) {
+            width = (int) (width * targetDensity / (float) density + 0.5f);
+            height = (int) (height * targetDensity / (float) density + 0.5f);
+        }
+        return new MipmapSource(resources, resId, options.outWidth, options.outHeight, width, height,
+                "image/jpeg".equals(options.outMimeType));
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is == null) return;
+        try {
+            is.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 显示时的宽度，与所选级别无关
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * 显示时的高度，与所选级别无关
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getResId() {
+        return mResId;
+    }
+
+    /**
+     * 资源是否一定不透明，JPEG没有alpha通道，可以用RGB_565解码
+     */
+    public boolean isOpaque() {
+        return mOpaque;
+    }
+
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * 设置解码使用的Config，会释放已经解码的级别。
+     * RGB_565的内存为一半，ALPHA_8只保留alpha通道，为四分之一，绘制时的颜色由Paint决定，适合单色图标
+     */
+    public void setConfig(Bitmap.Config config) {
+        if (mConfig == config) return;
+        release();
+        mConfig = config;
+    }
+
+    /**
+     * 缩放比例为scale时应该使用的级别：在分辨率不低于显示需要的前提下采样率最大的一级
+     */
+    public int levelForScale(float scale) {
+        // 显示需要的像素宽度与原始像素宽度之比
+        float ratio = mWidth * scale / mRawWidth;
+        int level = 0;
+        while (level < MAX_LEVEL && ratio * (2 << level) <= 1f
+                && (mRawWidth >> (level + 1)) > 0 && (mRawHeight >> (level + 1)) > 0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * 获取缩放比例为scale时使用的Bitmap，需要时解码，并释放最久未使用的多余级别
+     */
+    public Bitmap getBitmap(float scale) {
+        return getLevel(levelForScale(scale));
+    }
+
+    /**
+     * 获取某一级的Bitmap，缓存中没有时解码
+     */
+    public Bitmap getLevel(int level) {
+        Bitmap bitmap = getLevelIfReady(level);
+        if (bitmap == null) {
+            bitmap = decodeLevel(level);
+            if (bitmap == null) return null;
+            bitmap = installLevel(level, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 获取已经解码好的某一级(本身持有或者在BitmapCache中)，不会解码，没有时返回null
+     */
+    public Bitmap getLevelIfReady(int level) {
+        Bitmap bitmap = mLevels[level];
+        if (bitmap == null) {
+            bitmap = BitmapCache.getInstance().acquire(levelKey(level));
+            if (bitmap == null) return null;
+            mLevels[level] = bitmap;
+            trimLevels(level);
+        }
+        mLastUsed[level] = ++mUseCounter;
+        return bitmap;
+    }
+
+    /**
+     * 在后台线程中解码某一级，完成后放入BitmapCache并在主线程回调。
+     * 返回的任务被取消后不会回调，解码结果也会被丢弃
+     */
+    public BitmapLoader.Task loadLevelAsync(final int level, final LevelCallback callback) {
+        return BitmapLoader.load(new BitmapLoader.Decoder() {
+            @Override
+            public Bitmap decode() {
+                return decodeLevel(level);
+            }
+        }, new BitmapLoader.Callback() {
+            @Override
+            public void onLoaded(Bitmap bitmap) {
+                callback.onLevelLoaded(level, bitmap == null ? null : installLevel(level, bitmap));
+            }
+        });
+    }
+
+    /**
+     * 将解码好的一级放入BitmapCache并持有，返回实际使用的Bitmap
+     */
+    private Bitmap installLevel(int level, Bitmap bitmap) {
+        if (mLevels[level] != null) return mLevels[level];
+        bitmap = BitmapCache.getInstance().put(levelKey(level), bitmap);
+        mLevels[level] = bitmap;
+        trimLevels(level);
+        mLastUsed[level] = ++mUseCounter;
+        return bitmap;
+    }
+
+    /**
+     * 按第level级的采样率和设置的Config解码资源，不做密度缩放。可以在后台线程调用
+     */
+    Bitmap decodeLevel(int level) {
+        Bitmap.Config config = mConfig;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1 << level;
+        options.inScaled = false;
+        // 解码器不一定支持直接解码成ALPHA_8，先按ARGB_8888解码再取出alpha通道
+        if (config != null && config != Bitmap.Config.ALPHA_8) {
+            options.inPreferredConfig = config;
+        }
+        Bitmap bitmap = BitmapFactory.decodeResource(mResources, mResId, options);
+        if (bitmap != null && config == Bitmap.Config.ALPHA_8 && bitmap.getConfig() != Bitmap.Config.ALPHA_8) {
+            Bitmap alpha = bitmap.extractAlpha();
+            bitmap.recycle();
+            bitmap = alpha;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 保留的级别超过MAX_RESIDENT_LEVELS时释放最久未使用的级别, keep为刚解码的级别
+     */
+    private void trimLevels(int keep) {
+        int resident = 0;
+        for (Bitmap level : mLevels) {
+            if (level != null) resident++;
+        }
+        while (resident > MAX_RESIDENT_LEVELS) {
+            int oldest = -1;
+            for (int i = 0; i < mLevels.length; i++) {
+                if (i != keep && mLevels[i] != null && (oldest == -1 || mLastUsed[i] < mLastUsed[oldest])) {
+                    oldest = i;
+                }
+            }
+            releaseLevel(oldest);
+            resident--;
+        }
+    }
+
+    /**
+     * 释放所有已解码的级别
+     */
+    public void release() {
+        for (int i = 0; i < mLevels.length; i++) {
+            releaseLevel(i);
+        }
+    }
+
+    /**
+     * 释放除inUse以外的所有级别，内存不足但仍在显示时使用
+     */
+    public void releaseExcept(Bitmap inUse) {
+        for (int i = 0; i < mLevels.length; i++) {
+            if (mLevels[i] != inUse) releaseLevel(i);
+        }
+    }
+
+    private void releaseLevel(int level) {
+        if (mLevels[level] == null) return;
+        mLevels[level] = null;
+        BitmapCache.getInstance().release(levelKey(level));
+    }
+
+    private String levelKey(int level) {
+        return BitmapCache.withConfig(BitmapCache.resourceKey(mResId, 1 << level), mConfig);
+    }
+}
@@ -1,28 +1,36 @@
 package com.sf.wzq.singletouchview;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.ColorFilter;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
-import android.util.FloatMath;
 import android.util.TypedValue;
+import android.os.Build;
+import android.view.Choreographer;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
-
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
 
 /**
  * Created by sf on 2015/3/3.
@@ -32,11 +40,11 @@ public class SingleTouchView extends View {
     /**
      * 图片的最大缩放比例
      */
-    public static final float MAX_SCALE = 10.0f;
+    public static final float MAX_SCALE = TransformEngine.DEFAULT_MAX_SCALE;
     /**
      * 图片的最小缩放比例
      */
-    public static final float MIN_SCALE = 0.3f;
+    public static final float MIN_SCALE = TransformEngine.DEFAULT_MIN_SCALE;
     /**
      * 控制(缩放，旋转)图标所在的四个点的位置
      */
@@ -53,33 +61,134 @@ public class SingleTouchView extends View {
     public static final float DEFAULT_SCALE = 1.0f;//默认缩放比例
     public static final float DEFAULT_DEGREE = 0;//默认旋转角度
     public static final int DEFAULT_CONTROL_LOCATION = RIGHT_TOP;//控制图标默认位置
+    public static final int DEFAULT_DELETE_LOCATION = LEFT_TOP;//删除图标默认位置
+    public static final int DEFAULT_FLIP_LOCATION = LEFT_BOTTOM;//翻转图标默认位置
     public static final boolean DEFAULT_EDITABLE = true;//默认编辑模式
+    public static final int DEFAULT_GUIDE_THRESHOLD = 6;//默认参考线吸附距离(dp)
+    public static final int DEFAULT_GUIDE_COLOR = 0xFF00BCD4;//默认参考线颜色
     public static final int DEFAULT_OTHER_DRAWABLE_WIDTH = 50;
     public static final int DEFAULT_OTHER_DRAWABLE_HEIGHT = 50;
+    public static final int DEFAULT_PLACEHOLDER_COLOR = 0x33888888;//图片解码完成前占位框的颜色
     /**
      * 用于平移/旋转/缩放的Bitmap
      */
     private Bitmap mBitmap;
     /**
-     * SingleTouchView的中心点坐标，相对于其父类布局而言的
+     * 按缩放比例解码的图片源，通过资源id设置图片时使用，为null时mBitmap是固定的
      */
-    private PointF mCenterPoint = new PointF();
+    private MipmapSource mSource;
     /**
-     * View的宽度和高度，随着图片的旋转而变化(不包括控制图标的宽高)
+     * 按块解码的超大图片源，不为null时不使用mBitmap和mSource，只解码可见区域的块
      */
-    private int mViewWidth, mViewHeight;
+    private TiledSource mTiledSource;
+    /**
+     * 按缩放比例光栅化的矢量图片源，shape等非位图的Drawable使用，mBitmap为当前级别的光栅化结果
+     */
+    private VectorSource mVectorSource;
+    /**
+     * mTiledSource当前使用的级别，缩放手势进行中不切换
+     */
+    private int mTileLevel;
+    /**
+     * 父布局的范围在图片坐标系中的外接矩形，即可能可见的部分
+     */
+    private final float[] mVisibleRegion = new float[4];
+    /**
+     * 四边形完全在父布局之外，或者被上层不透明的View完全挡住，此时不绘制
+     */
+    private boolean mCulled;
+    /**
+     * 内存不足时释放了图片源解码的Bitmap，重新可见时再解码
+     */
+    private boolean mTrimmed;
+    /**
+     * 每一帧绘制前检查是否在父布局之外，遮挡只在mOcclusionDirty时重新检查
+     */
+    private final ViewTreeObserver.OnPreDrawListener mPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            updateCulling();
+            return true;
+        }
+    };
+    /**
+     * 是否检查被上层的兄弟View挡住，见setOcclusionCullingEnabled
+     */
+    private boolean mOcclusionCullingEnabled = true;
+    /**
+     * 上次遍历父布局的结果：是否被上层的一个兄弟View完全挡住
+     */
+    private boolean mOccluded;
+    /**
+     * 窗口中有布局变化、自己的位置变化或者调用了invalidateOcclusion后，下一帧绘制前重新遍历父布局检查遮挡，
+     * 其它帧直接使用mOccluded。兄弟View只改变translation、alpha或可见性时不会重新检查
+     */
+    private boolean mOcclusionDirty = true;
+    private final ViewTreeObserver.OnGlobalLayoutListener mGlobalLayoutListener = new ViewTreeObserver.OnGlobalLayoutListener() {
+        @Override
+        public void onGlobalLayout() {
+            mOcclusionDirty = true;
+        }
+    };
+    /**
+     * 系统内存不足时的回调，在窗口中时添加到BitmapCache，由BitmapCache统一向Application注册一次
+     */
+    private final BitmapCache.OnTrimMemoryListener mTrimListener = new BitmapCache.OnTrimMemoryListener() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+    };
+    /**
+     * 图片显示时(缩放比例为1)的宽和高，与mBitmap实际解码的分辨率无关
+     */
+    private int mImageWidth, mImageHeight;
+    /**
+     * mBitmap来自BitmapCache时对应的key，更换图片时需要释放
+     */
+    private String mBitmapCacheKey;
+    /**
+     * 通过setImageFromPack设置时贴图的引用，用于保存状态
+     */
+    private String mPackSource;
     /**
-     * 图片的旋转角度
+     * 通过资源id设置图片时的id，用于保存状态，其他方式设置图片时为0
      */
-    private float mDegree = DEFAULT_DEGREE;
+    private int mImageResId;
     /**
-     * 图片的缩放比例
+     * 中心点是否已经确定(第一次测量、调用setCenterPoint或恢复状态)，确定后重新测量不再移回父布局中心
      */
-    private float mScale = DEFAULT_SCALE;
+    private boolean mHasCenter;
+    /**
+     * 是否在后台线程中解码图片源
+     */
+    private boolean mAsyncLoad;
+    /**
+     * 正在后台解码的任务以及解码的级别
+     */
+    private BitmapLoader.Task mPendingLoad;
+    private int mPendingLevel;
+    /**
+     * 图片的中心点(相对于其父类布局而言的)、旋转角度、缩放比例以及四个角的计算
+     */
+    private final TransformEngine mEngine = new TransformEngine();
+    /**
+     * 每次手势结束后的变换记录，用于撤销、重做
+     */
+    private final TransformHistory mHistory = new TransformHistory();
+    /**
+     * View的宽度和高度，随着图片的旋转而变化(不包括控制图标的宽高)
+     */
+    private int mViewWidth, mViewHeight;
     /**
      * 用于缩放，旋转，平移的矩阵
      */
     private Matrix matrix = new Matrix();
+    private final float[] mMatrixValues = new float[9];
+    /**
+     * 需要重绘的区域：变换前后四边形(包括边框线宽和控制图标)的并集
+     */
+    private final Rect mDirtyRect = new Rect();
     /**
      * SingleTouchView距离父布局的左间距
      */
@@ -89,32 +198,69 @@ public class SingleTouchView extends View {
      */
     private int mViewPaddingTop;
     /**
-     * 图片的四个角的点坐标
+     * 图片的四个角的点坐标，预先分配，每次变换时只修改其值
      */
-    private Point mLTPoint;
-    private Point mRTPoint;
-    private Point mRBPoint;
-    private Point mLBPoint;
+    private final Point mLTPoint = new Point();
+    private final Point mRTPoint = new Point();
+    private final Point mRBPoint = new Point();
+    private final Point mLBPoint = new Point();
     /**
      * 用于缩放，旋转的控制图标的中心点，值为图片四个角坐标中的一个。
      */
-    private Point mControlPoint = new Point();
+    private Point mControlPoint = mRTPoint;
+    /**
+     * 各个图标，下标为HANDLE_*，为null时不显示。HANDLE_ROTATE_ZOOM为用于缩放旋转的控制图标
+     */
+    private final Drawable[] mHandleDrawables = new Drawable[HANDLE_COUNT];
     /**
-     * 用于缩放旋转的控制图标
+     * 各个图标所在的位置(左上，右上，左下，右下）
      */
-    private Drawable controlDrawable;
+    private final int[] mHandleLocations = {DEFAULT_CONTROL_LOCATION, DEFAULT_DELETE_LOCATION, DEFAULT_FLIP_LOCATION};
     /**
-     * 控制(缩放旋转)图标的宽和高
+     * 所有图标中最大的宽和高，View的四周留出一半的大小
      */
     private int mDrawableWidth, mDrawableHeight;
     /**
-     * 画外围框的Path
+     * 点击删除、翻转图标的回调
      */
-    private Path mPath = new Path();
+    private OnHandleClickListener mOnHandleClickListener;
+    /**
+     * 外围框的Path，只在变换后重新生成，onDraw中直接使用
+     */
+    private final Path mPath = new Path();
     /**
      * 画外围框的画笔
      */
     private Paint mPaint;
+    /**
+     * 图片还没解码完成时画占位框的画笔
+     */
+    private Paint mPlaceholderPaint;
+    /**
+     * 画ALPHA_8图片的画笔，颜色为着色的颜色
+     */
+    private final Paint mTintPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /**
+     * 是否设置了着色，设置后自动选择时使用ALPHA_8
+     */
+    private boolean mTinted;
+    /**
+     * 之后设置的图片源使用的Config，null时自动选择：着色时ALPHA_8，不透明的图片RGB_565，其它ARGB_8888
+     */
+    private Bitmap.Config mPixelConfig;
+    /**
+     * pixelConfig属性的枚举值对应的Config
+     */
+    private static final Bitmap.Config[] PIXEL_CONFIGS = {
+            null, Bitmap.Config.ARGB_8888, Bitmap.Config.RGB_565, Bitmap.Config.ALPHA_8
+    };
+    /**
+     * 四个角上可以放的图标：缩放旋转、删除、水平翻转
+     */
+    public static final int HANDLE_ROTATE_ZOOM = 0;
+    public static final int HANDLE_DELETE = 1;
+    public static final int HANDLE_FLIP = 2;
+    private static final int HANDLE_COUNT = 3;
     /**
      * 初始状态
      */
@@ -127,10 +273,27 @@ public class SingleTouchView extends View {
      * 缩放 或 旋转 状态
      */
     public static final int STATUS_ROTATE_ZOOM = 2;
+    /**
+     * 双指缩放、旋转、平移状态
+     */
+    public static final int STATUS_PINCH = 3;
+    /**
+     * 按下了删除或翻转图标，抬起时还在图标上才触发
+     */
+    static final int STATUS_HANDLE = 4;
+    /**
+     * STATUS_HANDLE时按下的图标
+     */
+    private int mPressedHandle;
     /**
      * 当前的状态
      */
     private int mStatus = STATUS_INIT;
+    /**
+     * 拖动(或双指中第一个手指)和双指中第二个手指的pointer id
+     */
+    private int mActivePointerId;
+    private int mSecondPointerId;
     /**
      * 外边框与图片之间的间距，单位dip
      */
@@ -150,20 +313,147 @@ public class SingleTouchView extends View {
     private DisplayMetrics Metrics;
     private PointF mPreMovePointF = new PointF();
     private PointF mCurMovePointF = new PointF();
+
+    private DisplayMetrics metrics;
+    /**
+     * 性能统计的回调，为null时不做任何统计
+     */
+    private OnMetricsListener mMetricsListener;
+    /**
+     * 手势进行中上一个vsync的时间，用于计算掉帧数，0表示手势刚开始
+     */
+    private long mLastGestureFrameNanos;
+    /**
+     * 按60fps计算的一帧的时长，设置回调时按屏幕的刷新率更新
+     */
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+    private long mFrameIntervalNanos = FRAME_INTERVAL_NANOS;
+    /**
+     * 手势进行中每个vsync都回调一次，用于统计掉帧。拖动时只改变位置，不会调用onDraw，所以不能按onDraw统计
+     */
+    private Choreographer.FrameCallback mStatsFrameCallback;
+    private boolean mStatsFrameScheduled;
+    /**
+     * 合并触摸事件时，已经累积到变换中、等下一个vsync刷新的事件的时间和action，用于在真正刷新时计算延迟
+     */
+    private static final int MAX_PENDING_TOUCHES = 16;
+    private final long[] mPendingTouchTimes = new long[MAX_PENDING_TOUCHES];
+    private final int[] mPendingTouchActions = new int[MAX_PENDING_TOUCHES];
+    private int mPendingTouchCount;
+    /**
+     * 是否合并一帧内的触摸事件，每个vsync只刷新一次
+     */
+    private boolean mCoalesceTouchEvents;
+    /**
+     * 是否已经请求了下一帧的刷新，以及下一帧是否需要重新计算变换(否则只需要调整位置)
+     */
+    private boolean mFrameScheduled;
+    private boolean mTransformPending;
+    /**
+     * 合并触摸事件时使用的vsync回调，只在API 16以上创建
+     */
+    private Choreographer.FrameCallback mFrameCallback;
+    /**
+     * 拖动时是否使用硬件层缓存
+     */
+    private boolean mGestureLayerEnabled;
+    /**
+     * 进入硬件层之前的layerType，-1表示当前没有因为手势切换layerType
+     */
+    private int mLayerTypeBeforeGesture = -1;
+    /**
+     * 惯性滑动时速度每秒衰减的系数(指数衰减)，以及低于多少像素每秒时停止
+     */
+    private static final float FLING_FRICTION = 4f;
+    private static final float FLING_STOP_VELOCITY = 20f;
+    /**
+     * 缩放比例回弹的弹簧刚度，阻尼取临界阻尼2 * sqrt(k)，回弹过程不会来回振荡
+     */
+    private static final float SPRING_STIFFNESS = 300f;
+    private static final float SPRING_DAMPING = 2 * (float) Math.sqrt(SPRING_STIFFNESS);
     /**
-     * 图片在旋转时X方向的偏移量
+     * 缩放比例与目标的差值和速度都小于这个值时认为回弹结束
      */
-    private int offsetX;
+    private static final float SPRING_STOP_THRESHOLD = 0.001f;
     /**
-     * 图片在旋转时Y方向的偏移量
+     * 两帧之间的时间间隔的上限，避免卡顿后一帧走得太远
      */
-    private int offsetY;
+    private static final float MAX_SETTLE_FRAME_SECONDS = 0.05f;
     /**
-     * 控制图标所在的位置(左上，右上，左下，右下）
+     * 是否开启松手后的惯性滑动和缩放回弹，需要API 16
      */
-    private int controlLocation = DEFAULT_CONTROL_LOCATION;
+    private boolean mFlingEnabled;
+    private VelocityTracker mVelocityTracker;
+    private int mMinFlingVelocity, mMaxFlingVelocity;
+    /**
+     * 惯性滑动的速度(像素每秒)，缩放回弹的速度(缩放比例每秒)
+     */
+    private float mFlingVelocityX, mFlingVelocityY;
+    private float mSpringVelocity;
+    /**
+     * 是否正在惯性滑动、缩放回弹
+     */
+    private boolean mFlinging, mSpringing;
+    /**
+     * 上一帧动画的vsync时间，0表示动画刚开始
+     */
+    private long mLastSettleFrameNanos;
+    /**
+     * 惯性滑动和回弹使用的vsync回调，只创建一次
+     */
+    private Choreographer.FrameCallback mSettleCallback;
+    /**
+     * 拖动时是否吸附到父布局和兄弟View的边、中线并显示参考线
+     */
+    private boolean mGuidesEnabled;
+    private AlignmentGuides mGuides;
+    /**
+     * 这次拖动是否在使用参考线，以及手指拖出的原始中心点(不含吸附的偏移)
+     */
+    private boolean mGuidesActive;
+    private float mDragCenterX, mDragCenterY;
+    /**
+     * 画在父布局ViewOverlay上的参考线(需要API 18)，以及添加到的父布局
+     */
+    private Drawable mGuideDrawable;
+    private ViewGroup mGuideParent;
+    private Paint mGuidePaint;
 
-    private DisplayMetrics metrics;
+    /**
+     * 点击删除、翻转图标的回调。翻转图标点击时图片已经翻转，删除图标由调用者决定如何移除View
+     */
+    public interface OnHandleClickListener {
+        void onHandleClick(SingleTouchView view, int handle);
+    }
+
+    /**
+     * 性能统计的回调，在UI线程中调用
+     */
+    public interface OnMetricsListener {
+        /**
+         * 一个触摸事件处理完(已经调用invalidate或者调整了位置)时回调。
+         * 合并触摸事件时，MOVE事件在下一个vsync真正刷新时才回调
+         *
+         * @param action       事件的action
+         * @param latencyNanos 从事件发生到刷新的时间。MotionEvent的时间和System.nanoTime()都基于CLOCK_MONOTONIC
+         */
+        void onTouchHandled(int action, long latencyNanos);
+
+        /**
+         * 一次onDraw完成时回调
+         *
+         * @param durationNanos onDraw的耗时
+         */
+        void onDrawn(long durationNanos);
+
+        /**
+         * 手势、惯性滑动或者回弹进行中，每个vsync回调一次，只在API 16以上回调
+         *
+         * @param frameTimeNanos 这一帧的vsync时间
+         * @param droppedFrames  和上一帧之间掉的帧数
+         */
+        void onGestureFrame(long frameTimeNanos, int droppedFrames);
+    }
 
     public SingleTouchView(Context context) {
         this(context, null);
@@ -190,18 +480,44 @@ public class SingleTouchView extends View {
         frameWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_FRAME_WIDTH, metrics);
 
         TypedArray mTypedArray = getContext().obtainStyledAttributes(attrs, R.styleable.SingleTouchView);
-        Drawable srcDrawable = mTypedArray.getDrawable(R.styleable.SingleTouchView_src);
-        // 将drawable转变为bitmap
-        mBitmap = drawable2Bitmap(srcDrawable);
+        // 先读取像素格式和着色，图片源按它们选择Config
+        mPixelConfig = PIXEL_CONFIGS[mTypedArray.getInt(R.styleable.SingleTouchView_pixelConfig, 0)];
+        if (mTypedArray.hasValue(R.styleable.SingleTouchView_tint)) {
+            mTinted = true;
+            mTintPaint.setColor(mTypedArray.getColor(R.styleable.SingleTouchView_tint, 0));
+        }
+        int srcResId = mTypedArray.getResourceId(R.styleable.SingleTouchView_src, 0);
+        mSource = srcResId == 0 ? null : MipmapSource.fromResource(getResources(), srcResId);
+        if (mSource != null) {
+            mSource.setConfig(resolvePixelConfig(mSource.isOpaque()));
+            // 位图资源按缩放比例解码，在transformDraw中选择合适的级别
+            mImageWidth = mSource.getWidth();
+            mImageHeight = mSource.getHeight();
+        } else {
+            Drawable srcDrawable = mTypedArray.getDrawable(R.styleable.SingleTouchView_src);
+            if (srcDrawable == null || srcDrawable instanceof BitmapDrawable) {
+                // 将drawable转变为bitmap
+                setBitmapInternal(drawable2Bitmap(srcDrawable));
+            } else {
+                setVectorInternal(srcDrawable, srcResId);
+            }
+        }
 
         framePadding = mTypedArray.getDimensionPixelSize(R.styleable.SingleTouchView_framePadding, framePadding);
         frameWidth = mTypedArray.getDimensionPixelSize(R.styleable.SingleTouchView_frameWidth, frameWidth);
         frameColor = mTypedArray.getColor(R.styleable.SingleTouchView_frameColor, DEFAULT_FRAME_COLOR);
-        mScale = mTypedArray.getFloat(R.styleable.SingleTouchView_scale, DEFAULT_SCALE);
-        mDegree = mTypedArray.getFloat(R.styleable.SingleTouchView_degree, DEFAULT_DEGREE);
-        controlDrawable = mTypedArray.getDrawable(R.styleable.SingleTouchView_controlDrawable);
-        controlLocation = mTypedArray.getInt(R.styleable.SingleTouchView_controlLocation, DEFAULT_CONTROL_LOCATION);
+        mEngine.setScale(mTypedArray.getFloat(R.styleable.SingleTouchView_scale, DEFAULT_SCALE));
+        mEngine.setDegree(mTypedArray.getFloat(R.styleable.SingleTouchView_degree, DEFAULT_DEGREE));
+        mHandleDrawables[HANDLE_ROTATE_ZOOM] = mTypedArray.getDrawable(R.styleable.SingleTouchView_controlDrawable);
+        mHandleLocations[HANDLE_ROTATE_ZOOM] = mTypedArray.getInt(R.styleable.SingleTouchView_controlLocation, DEFAULT_CONTROL_LOCATION);
+        mHandleDrawables[HANDLE_DELETE] = mTypedArray.getDrawable(R.styleable.SingleTouchView_deleteDrawable);
+        mHandleLocations[HANDLE_DELETE] = mTypedArray.getInt(R.styleable.SingleTouchView_deleteLocation, DEFAULT_DELETE_LOCATION);
+        mHandleDrawables[HANDLE_FLIP] = mTypedArray.getDrawable(R.styleable.SingleTouchView_flipDrawable);
+        mHandleLocations[HANDLE_FLIP] = mTypedArray.getInt(R.styleable.SingleTouchView_flipLocation, DEFAULT_FLIP_LOCATION);
         isEditable = mTypedArray.getBoolean(R.styleable.SingleTouchView_editable, DEFAULT_EDITABLE);
+        mEngine.setAngleSnap(mTypedArray.getFloat(R.styleable.SingleTouchView_snapAngle, 0),
+                TransformEngine.DEFAULT_SNAP_TOLERANCE);
+        mGuidesEnabled = mTypedArray.getBoolean(R.styleable.SingleTouchView_alignmentGuides, false);
         mTypedArray.recycle();
     }
 
@@ -237,369 +553,1396 @@ public class SingleTouchView extends View {
         mPaint.setStrokeWidth(frameWidth);
         mPaint.setStyle(Paint.Style.STROKE);
 
-        if (controlDrawable == null) {
-            controlDrawable = getContext().getResources().getDrawable(R.drawable.icon_rotate_zoom);
+        mPlaceholderPaint = new Paint();
+        mPlaceholderPaint.setColor(DEFAULT_PLACEHOLDER_COLOR);
+        mPlaceholderPaint.setStyle(Paint.Style.FILL);
+
+        mGuidePaint = new Paint();
+        mGuidePaint.setColor(DEFAULT_GUIDE_COLOR);
+        mGuidePaint.setStrokeWidth(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1, metrics));
+        mGuides = new AlignmentGuides(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_GUIDE_THRESHOLD, metrics));
+
+        if (mHandleDrawables[HANDLE_ROTATE_ZOOM] == null) {
+            mHandleDrawables[HANDLE_ROTATE_ZOOM] = getContext().getResources().getDrawable(R.drawable.icon_rotate_zoom);
         }
-        mDrawableWidth = controlDrawable.getIntrinsicWidth();
-        mDrawableHeight = controlDrawable.getIntrinsicHeight();
+        updateHandleSize();
+
+        ViewConfiguration configuration = ViewConfiguration.get(getContext());
+        mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
 
         transformDraw();
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        System.out.println("method -- onMeasure");
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        // 大小由图片决定，不受父布局的参数(如match_parent)影响，位置在onLayout中通过translation调整
+        setMeasuredDimension(mViewWidth + mDrawableWidth, mViewHeight + mDrawableHeight);
 
-        // 获取SingleTouchView所在父布局的中心点，设置为mCenterPoint
+        // 获取SingleTouchView所在父布局的中心点，设置为图片的初始中心点
         ViewGroup parent = (ViewGroup) getParent();
-        if (parent != null) {
+        if (parent != null && !mHasCenter) {
             int width = parent.getWidth();
             int height = parent.getHeight();
-            System.out.println("onMeasure -- mCenterPoint.x = "+width+"; mCenterPoint.y ="+height);
-            mCenterPoint.set(width / 2, height / 2);
+            mEngine.setCenter(width / 2, height / 2);
+            mHasCenter = width > 0 && height > 0;
         }
     }
 
-    /**
-     * 调整View的大小，位置
-     */
-    private void adjustLayout() {
-        int actualWidth = mViewWidth + mDrawableWidth;
-        int actualHeight = mViewHeight + mDrawableHeight;
-
-        int newPaddingLeft = (int) (mCenterPoint.x - actualWidth / 2);
-        int newPaddingTop = (int) (mCenterPoint.y - actualHeight / 2);
-
-        if (mViewPaddingLeft != newPaddingLeft || mViewPaddingTop != newPaddingTop) {
-
-            mViewPaddingLeft = newPaddingLeft;
-            mViewPaddingTop = newPaddingTop;
-
-            System.out.println("View的 L = " + newPaddingLeft + "; T = " + newPaddingTop + "; R = " + newPaddingLeft + actualWidth + "; B = " + newPaddingTop + actualHeight);
-            layout(newPaddingLeft, newPaddingTop, newPaddingLeft + actualWidth, newPaddingTop + actualHeight);
-        }
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        state.transform = getTransformState();
+        return state;
     }
 
     @Override
-    protected void onDraw(Canvas canvas) {
-
-        // 每次画之前调整位置和大小
-        adjustLayout();
-
-        super.onDraw(canvas);
-
-        if (mBitmap == null) return;
-        canvas.drawBitmap(mBitmap, matrix, null);
-
-        //处于编辑状态太画边框和控制图标
-        if (isEditable) {
-            // 1,画边框
-            mPath.reset();
-            mPath.moveTo(mLTPoint.x, mLTPoint.y);
-            mPath.lineTo(mRTPoint.x, mRTPoint.y);
-            mPath.lineTo(mRBPoint.x, mRBPoint.y);
-            mPath.lineTo(mLBPoint.x, mLBPoint.y);
-            mPath.lineTo(mLTPoint.x, mLTPoint.y);
-            canvas.drawPath(mPath, mPaint);
-            // 2,画控制图标
-            controlDrawable.setBounds(mControlPoint.x - mDrawableWidth / 2, mControlPoint.y - mDrawableHeight / 2,
-                    mControlPoint.x + mDrawableWidth / 2, mControlPoint.y + mDrawableHeight / 2);
-            controlDrawable.draw(canvas);
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (savedState.transform != null) {
+            setTransformState(savedState.transform);
         }
-
     }
 
-    @Override
-    public boolean onTouchEvent(MotionEvent event) {
-        if(!isEditable) return super.onTouchEvent(event);
-        switch(event.getAction()){
-            case MotionEvent.ACTION_DOWN:
-                mPreMovePointF.set(event.getX() + mViewPaddingLeft,event.getY() + mViewPaddingTop);
-                mStatus = judgeStatus(event.getX(), event.getY());
-                break;
-            case MotionEvent.ACTION_UP:
-                mStatus = STATUS_INIT;
-                break;
-            case MotionEvent.ACTION_MOVE:
-                mCurMovePointF.set(event.getX() + mViewPaddingLeft,event.getY() + mViewPaddingTop);
-                if(mStatus == STATUS_DRAG){
-                    // 修改中心点
-                    mCenterPoint.x += mCurMovePointF.x - mPreMovePointF.x;
-                    mCenterPoint.y += mCurMovePointF.y - mPreMovePointF.y;
-
-                    adjustLayout();
-                }else if(mStatus == STATUS_ROTATE_ZOOM){
-                    float scale = 1f;
-
-                    int halfBitmapWidth = mBitmap.getWidth() / 2;
-                    int halfBitmapHeight = mBitmap.getHeight() /2 ;
-
-                    //图片某个点到图片中心的距离
-                    float bitmapToCenterDistance = FloatMath.sqrt(halfBitmapWidth * halfBitmapWidth + halfBitmapHeight * halfBitmapHeight);
-
-                    //移动的点到图片中心的距离
-                    float moveToCenterDistance = distance4PointF(mCenterPoint, mCurMovePointF);
-
-                    //计算缩放比例
-                    scale = moveToCenterDistance / bitmapToCenterDistance;
-
-                    //缩放比例的界限判断
-                    if (scale <= MIN_SCALE) {scale = MIN_SCALE;}
-                    else if (scale >= MAX_SCALE) {scale = MAX_SCALE;}
-
-                    // 角度
-                    double a = distance4PointF(mCenterPoint, mPreMovePointF);
-                    double b = distance4PointF(mPreMovePointF, mCurMovePointF);
-                    double c = distance4PointF(mCenterPoint, mCurMovePointF);
-
-                    double cosb = (a * a + c * c - b * b) / (2 * a * c);
-
-                    if (cosb >= 1) {
-                        cosb = 1f;
-                    }
-
-                    double radian = Math.acos(cosb);
-                    float newDegree = (float) radianToDegree(radian);
-
-                    //center -> proMove的向量， 我们使用PointF来实现
-                    PointF centerToProMove = new PointF((mPreMovePointF.x - mCenterPoint.x), (mPreMovePointF.y - mCenterPoint.y));
-
-                    //center -> curMove 的向量
-                    PointF centerToCurMove = new PointF((mCurMovePointF.x - mCenterPoint.x), (mCurMovePointF.y - mCenterPoint.y));
-
-                    //向量叉乘结果, 如果结果为负数， 表示为逆时针， 结果为正数表示顺时针
-                    float result = centerToProMove.x * centerToCurMove.y - centerToProMove.y * centerToCurMove.x;
+    /**
+     * 保存在onSaveInstanceState中的状态
+     */
+    static class SavedState extends BaseSavedState {
+        TransformState transform;
 
-                    if (result < 0) {
-                        newDegree = -newDegree;
-                    }
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
 
-                    mDegree = mDegree + newDegree;
-                    mScale = scale;
+        private SavedState(Parcel source) {
+            super(source);
+            transform = source.readParcelable(TransformState.class.getClassLoader());
+        }
 
-                    transformDraw();
-                }
-                mPreMovePointF.set(mCurMovePointF);
-                break;
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeParcelable(transform, flags);
         }
-        return  true;
-    }
 
-    private double radianToDegree(double radian) {
-        return radian * 180 / Math.PI;
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel source) {
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
     }
 
     /**
-     * 设置matrix,强制刷新
+     * 当前的中心点、旋转角度、缩放比例、是否翻转以及图片来源的引用(资源或贴图集中的贴图，其他方式设置时为null)
      */
-    private void transformDraw() {
-        int bitmapWidth = (int) (mBitmap.getWidth() * mScale);
-        int bitmapHeight = (int) (mBitmap.getHeight() * mScale);
-        // 计算四个点和View的大小
-        computeRect(-framePadding, -framePadding, bitmapWidth + framePadding, bitmapHeight + framePadding, mDegree);
-
-        // 设置缩放比例
-        matrix.setScale(mScale, mScale);
-        // 绕着图片中心进行旋转
-        matrix.postRotate(mDegree / 360, bitmapWidth / 2, bitmapHeight / 2);
-        // 设置画该图片的起始点
-        matrix.postTranslate(offsetX + mDrawableWidth / 2, offsetY + mDrawableHeight / 2);
-
-        invalidate();
+    public TransformState getTransformState() {
+        String source = mPackSource != null ? mPackSource : TransformState.resourceSource(getResources(), mImageResId);
+        return TransformState.from(mEngine, source);
     }
 
     /**
-     * 获取四个点和View的大小
-     *
-     * @param left
-     * @param top
-     * @param right
-     * @param bottom
-     * @param degree
+     * 恢复中心点、旋转角度、缩放比例和翻转，引用的资源与当前图片不同时按名字找到资源并重新设置图片，只重新计算和布局一次。
+     * 贴图集中的贴图不会重新设置，需要先用StickerPack.indexOfSource找到下标并调用setImageFromPack
      */
-    private void computeRect(int left, int top, int right, int bottom, float degree) {
-        Point lt = new Point(left, top);
-        Point rt = new Point(right, top);
-        Point rb = new Point(right, bottom);
-        Point lb = new Point(left, bottom);
-        Point cp = new Point((left + right) / 2, (top + bottom) / 2);
-        // 获取旋转degree角度后的点
-        mLTPoint = obtainRotationPoint(cp, lt, degree);
-        mRTPoint = obtainRotationPoint(cp, rt, degree);
-        mRBPoint = obtainRotationPoint(cp, rb, degree);
-        mLBPoint = obtainRotationPoint(cp, lb, degree);
-
-        //计算X坐标最大的值和最小的值
-        int maxCoordinateX = getMaxValue(mLTPoint.x, mRTPoint.x, mRBPoint.x, mLBPoint.x);
-        int minCoordinateX = getMinValue(mLTPoint.x, mRTPoint.x, mRBPoint.x, mLBPoint.x);
-
-        mViewWidth = maxCoordinateX - minCoordinateX;
-
-        //计算Y坐标最大的值和最小的值
-        int maxCoordinateY = getMaxValue(mLTPoint.y, mRTPoint.y, mRBPoint.y, mLBPoint.y);
-        int minCoordinateY = getMinValue(mLTPoint.y, mRTPoint.y, mRBPoint.y, mLBPoint.y);
-
-        mViewHeight = maxCoordinateY - minCoordinateY;
-
-
-        //View中心点的坐标
-        Point viewCenterPoint = new Point((maxCoordinateX + minCoordinateX) / 2, (maxCoordinateY + minCoordinateY) / 2);
-
-        offsetX = mViewWidth / 2 - viewCenterPoint.x;
-        offsetY = mViewHeight / 2 - viewCenterPoint.y;
-
-
-        int halfDrawableWidth = mDrawableWidth / 2;
-        int halfDrawableHeight = mDrawableHeight / 2;
-
-        //将Bitmap的四个点的X的坐标移动offsetX + halfDrawableWidth
-        mLTPoint.x += (offsetX + halfDrawableWidth);
-        mRTPoint.x += (offsetX + halfDrawableWidth);
-        mRBPoint.x += (offsetX + halfDrawableWidth);
-        mLBPoint.x += (offsetX + halfDrawableWidth);
+    public void setTransformState(TransformState state) {
+        state.applyTo(mEngine);
+        mHasCenter = true;
+        int resId = TransformState.getResourceId(getResources(), state.getSource());
+        if (resId != 0 && resId != mImageResId) {
+            setImageResource(resId);
+        } else {
+            transformDraw();
+        }
+    }
 
-        //将Bitmap的四个点的Y坐标移动offsetY + halfDrawableHeight
-        mLTPoint.y += (offsetY + halfDrawableHeight);
-        mRTPoint.y += (offsetY + halfDrawableHeight);
-        mRBPoint.y += (offsetY + halfDrawableHeight);
-        mLBPoint.y += (offsetY + halfDrawableHeight);
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnPreDrawListener(mPreDrawListener);
+        getViewTreeObserver().addOnGlobalLayoutListener(mGlobalLayoutListener);
+        mOcclusionDirty = true;
+        BitmapCache.getInstance().addOnTrimMemoryListener(getContext(), mTrimListener);
+        // 离开窗口时取消了后台解码，重新回到窗口时继续
+        if (mAsyncLoad && mPendingLoad == null) {
+            transformDraw();
+        }
+    }
 
-        mControlPoint = LocationToPoint(controlLocation);
+    @SuppressWarnings("deprecation")
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        getViewTreeObserver().removeOnPreDrawListener(mPreDrawListener);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            getViewTreeObserver().removeOnGlobalLayoutListener(mGlobalLayoutListener);
+        } else {
+            getViewTreeObserver().removeGlobalOnLayoutListener(mGlobalLayoutListener);
+        }
+        mOccluded = false;
+        BitmapCache.getInstance().removeOnTrimMemoryListener(mTrimListener);
+        cancelPendingLoad();
+        if (mFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            mFrameScheduled = false;
+        }
+        mPendingTouchCount = 0;
+        if (mStatsFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mStatsFrameCallback);
+            mStatsFrameScheduled = false;
+        }
+        mLastGestureFrameNanos = 0;
+        stopSettle();
+        stopGuides();
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
 
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        // 父布局按onMeasure的大小摆放后，通过translation移到图片中心点决定的位置
+        updatePosition();
     }
 
     /**
-     * 获取一个点旋转degree角度后的点
+     * 调整View的大小，位置。
+     * 只有大小变化时才requestLayout()，由onMeasure取新的大小，位置的变化通过setTranslationX/Y实现，拖动时不会触发layout
+     *
+     * @return 大小是否变化，此时整个View都会重绘
      */
-    private Point obtainRotationPoint(Point center, Point source, float degree) {
-        /**
-         * sin(A+B) = sinAcosB+cosAsinB
-         * cos(A+B) = cosAcosB-sinAsinB
-         */
-        //将degree转换为弧度
-        double degreeRadian = degree * Math.PI / 180;
-        //先求 点source 到 点center的距离
-        Point disPoint = new Point(source.x - center.x, source.y - center.y);
-        double radius = Math.sqrt(disPoint.x * disPoint.x + disPoint.y * disPoint.y);
-
-        // 计算中间值sinA、sinB、cosA、cosB
-        double sinA = disPoint.y / radius;
-        double cosA = disPoint.x / radius;
-        double sinB = Math.sin(degreeRadian);
-        double cosB = Math.cos(degreeRadian);
-
-        double sinAB = sinA * cosB + cosA * sinB;
-        double cosAB = cosA * cosB - sinA * sinB;
+    private boolean adjustLayout() {
+        boolean resized = getWidth() != mViewWidth + mDrawableWidth || getHeight() != mViewHeight + mDrawableHeight;
+        if (resized) {
+            requestLayout();
+        }
+        updatePosition();
+        return resized;
+    }
 
-        //旋转degree角度之后的点
-        Point result = new Point();
+    /**
+     * 按图片中心点计算View左上角在父布局中的位置，与父布局摆放的位置的差通过translation实现
+     */
+    private void updatePosition() {
+        int newPaddingLeft = (int) (mEngine.getCenterX() - (mViewWidth + mDrawableWidth) / 2);
+        int newPaddingTop = (int) (mEngine.getCenterY() - (mViewHeight + mDrawableHeight) / 2);
 
-        result.x = (int) Math.round(radius * cosAB);
-        result.y = (int) Math.round(radius * sinAB);
+        if (newPaddingLeft != mViewPaddingLeft || newPaddingTop != mViewPaddingTop) {
+            mOcclusionDirty = true;
+        }
+        mViewPaddingLeft = newPaddingLeft;
+        mViewPaddingTop = newPaddingTop;
 
-        return result;
+        setTranslationX(newPaddingLeft - getLeft());
+        setTranslationY(newPaddingTop - getTop());
+        updateTiles();
     }
 
     /**
-     * 根据位置判断控制图标处于那个点
+     * 按父布局范围内可见的部分更新需要解码的块，平移、缩放、旋转后都需要调用
      */
-    private Point LocationToPoint(int location) {
-        switch (location) {
-            case LEFT_TOP:
-                return mLTPoint;
-            case RIGHT_TOP:
-                return mRTPoint;
-            case RIGHT_BOTTOM:
-                return mRBPoint;
-            case LEFT_BOTTOM:
-                return mLBPoint;
+    private void updateTiles() {
+        if (mTiledSource == null || !(getParent() instanceof ViewGroup)) return;
+        ViewGroup parent = (ViewGroup) getParent();
+        // 缩放手势进行中不切换级别，避免手势过程中反复解码
+        if (mStatus != STATUS_ROTATE_ZOOM && mStatus != STATUS_PINCH && !mSpringing) {
+            mTileLevel = mTiledSource.levelForScale(mEngine.getScale());
         }
-        return mLTPoint;
+        mEngine.mapRectToImage(0, 0, parent.getWidth(), parent.getHeight(), mVisibleRegion);
+        mTiledSource.update(mVisibleRegion[0], mVisibleRegion[1], mVisibleRegion[2], mVisibleRegion[3], mTileLevel);
     }
 
     /**
-     * 根据点击的位置判断是否点中控制旋转，缩放的图片， 初略的计算
+     * 更新是否可见，重新可见时在后台重新解码内存不足时释放的图片。在onPreDraw中调用，不能layout或同步解码
      */
-    private int judgeStatus(float x, float y) {
-        PointF touchPoint = new PointF(x, y);
-        PointF controlPointF = new PointF(mControlPoint);
-
-        //点击的点到控制旋转，缩放点的距离
-        float distanceToControl = distance4PointF(touchPoint, controlPointF);
-
-        //如果两者之间的距离小于 控制图标的宽度，高度的最小值，则认为点中了控制图标
-        if (distanceToControl < Math.min(mDrawableWidth / 2, mDrawableHeight / 2)) {
-            return STATUS_ROTATE_ZOOM;
+    private void updateCulling() {
+        boolean culled = isOffscreen() || isOccluded();
+        if (culled != mCulled) {
+            mCulled = culled;
+            invalidate();
+        }
+        if (!culled && mTrimmed) {
+            reloadTrimmed();
         }
-
-        return STATUS_DRAG;
     }
 
     /**
-     * 两个 PointF 点之间的距离
+     * 在后台重新解码内存不足时释放的图片，解码完成前画占位框。
+     * 图片的显示大小不变，View的大小也不变，解码完只需要按新Bitmap的分辨率更新绘制矩阵并重绘
      */
-    private float distance4PointF(PointF pf1, PointF pf2) {
-        float disX = pf2.x - pf1.x;
-        float disY = pf2.y - pf1.y;
-        return PointF.length(disX, disY);
+    private void reloadTrimmed() {
+        mTrimmed = false;
+        if (mTiledSource != null) {
+            // 块本来就在后台解码，解码好一块重绘一次
+            updateTiles();
+            return;
+        }
+        cancelPendingLoad();
+        if (mVectorSource != null) {
+            mPendingLevel = -1;
+            mPendingLoad = mVectorSource.loadAsync(mEngine.getScale(), new BitmapLoader.Callback() {
+                @Override
+                public void onLoaded(Bitmap bitmap) {
+                    mPendingLoad = null;
+                    if (bitmap != null) setSourceBitmap(bitmap);
+                }
+            });
+        } else if (mSource != null) {
+            mPendingLevel = mSource.levelForScale(mEngine.getScale());
+            mPendingLoad = mSource.loadLevelAsync(mPendingLevel, new MipmapSource.LevelCallback() {
+                @Override
+                public void onLevelLoaded(int level, Bitmap bitmap) {
+                    mPendingLoad = null;
+                    if (bitmap != null) setSourceBitmap(bitmap);
+                }
+            });
+        }
     }
 
     /**
-     * 设置旋转图
+     * 换成同一图片源另一个分辨率的Bitmap，只更新绘制矩阵，不重新计算变换和布局
      */
-    public void setImageBitmap(Bitmap bitmap) {
-        this.mBitmap = bitmap;
-        transformDraw();
+    private void setSourceBitmap(Bitmap bitmap) {
+        mBitmap = bitmap;
+        mEngine.getMatrixValues(mMatrixValues, bitmap.getWidth(), bitmap.getHeight(),
+                (mViewWidth + mDrawableWidth) / 2f, (mViewHeight + mDrawableHeight) / 2f);
+        matrix.setValues(mMatrixValues);
+        invalidateQuadArea();
+    }
+
+    /**
+     * 四边形(包括边框和图标)是否完全在父布局之外。
+     * View的外接矩形与父布局不相交，或者父布局反向变换到图片坐标系后的外接矩形与图片不相交时，两个矩形一定是分离的
+     */
+    private boolean isOffscreen() {
+        if (!(getParent() instanceof ViewGroup) || mImageWidth == 0 || mImageHeight == 0) return false;
+        ViewGroup parent = (ViewGroup) getParent();
+        if (mViewPaddingLeft >= parent.getWidth() || mViewPaddingTop >= parent.getHeight()
+                || mViewPaddingLeft + getWidth() <= 0 || mViewPaddingTop + getHeight() <= 0) {
+            return true;
+        }
+        mEngine.mapRectToImage(0, 0, parent.getWidth(), parent.getHeight(), mVisibleRegion);
+        // 边框间距、线宽和图标在图片坐标系中占用的余量
+        float margin = (framePadding + frameWidth + Math.max(mDrawableWidth, mDrawableHeight)) / mEngine.getScale();
+        return mVisibleRegion[0] > mImageWidth + margin || mVisibleRegion[1] > mImageHeight + margin
+                || mVisibleRegion[2] < -margin || mVisibleRegion[3] < -margin;
+    }
+
+    /**
+     * 是否被父布局中在上层的一个不透明View完全挡住。只考虑没有旋转、缩放，alpha为1并且isOpaque()的View，
+     * 按它的矩形判断，不考虑旋转、缩放后的四边形。
+     * 只在mOcclusionDirty时遍历父布局，其它帧返回上次的结果
+     */
+    private boolean isOccluded() {
+        if (!mOcclusionDirty) return mOccluded;
+        mOcclusionDirty = false;
+        mOccluded = false;
+        if (!mOcclusionCullingEnabled || !(getParent() instanceof ViewGroup)) return false;
+        ViewGroup parent = (ViewGroup) getParent();
+        for (int i = parent.indexOfChild(this) + 1; i < parent.getChildCount(); i++) {
+            if (covers(parent.getChildAt(i))) {
+                mOccluded = true;
+                break;
+            }
+        }
+        return mOccluded;
+    }
+
+    /**
+     * child是否是一个完全盖住自己的不透明View
+     */
+    private boolean covers(View child) {
+        if (child.getVisibility() != VISIBLE || !child.isOpaque() || child.getAlpha() < 1f
+                || child.getRotation() != 0 || child.getScaleX() != 1f || child.getScaleY() != 1f) {
+            return false;
+        }
+        float childLeft = child.getLeft() + child.getTranslationX();
+        float childTop = child.getTop() + child.getTranslationY();
+        return childLeft <= mViewPaddingLeft && childTop <= mViewPaddingTop
+                && childLeft + child.getWidth() >= mViewPaddingLeft + getWidth()
+                && childTop + child.getHeight() >= mViewPaddingTop + getHeight();
+    }
+
+    /**
+     * 内存不足时释放解码的图片：界面隐藏或者自身不可见时全部释放，重新可见时再解码；
+     * 仍在显示时只保留正在使用的一级。直接设置的Bitmap无法重新解码，不会释放
+     */
+    private void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || (mCulled && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)) {
+            releaseSourceBitmaps();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            if (mSource != null) mSource.releaseExcept(mBitmap);
+            if (mVectorSource != null) mVectorSource.releaseExcept(mBitmap);
+            if (mTiledSource != null) mTiledSource.evictInvisibleTiles();
+        }
+    }
+
+    /**
+     * 释放图片源解码的所有Bitmap，按块解码的大图保留预览块
+     */
+    private void releaseSourceBitmaps() {
+        if (mSource == null && mVectorSource == null && mTiledSource == null) return;
+        cancelPendingLoad();
+        if (mSource != null) {
+            mSource.release();
+            mBitmap = null;
+        }
+        if (mVectorSource != null) {
+            mVectorSource.release();
+            mBitmap = null;
+        }
+        if (mTiledSource != null) {
+            mTiledSource.evictTiles();
+        }
+        mTrimmed = true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mCulled) return;
+
+        if (mMetricsListener == null) {
+            drawImage(canvas);
+            return;
+        }
+        long start = System.nanoTime();
+        drawImage(canvas);
+        mMetricsListener.onDrawn(System.nanoTime() - start);
+    }
+
+    /**
+     * 画图片、边框和控制图标
+     */
+    private void drawImage(Canvas canvas) {
+
+        if (mImageWidth == 0 || mImageHeight == 0) return;
+
+        if (mTiledSource != null) {
+            // 矩阵把图片的显示坐标映射到View中，块按显示坐标绘制
+            canvas.save();
+            canvas.concat(matrix);
+            mTiledSource.draw(canvas);
+            canvas.restore();
+        } else if (mBitmap != null) {
+            canvas.drawBitmap(mBitmap, matrix, mBitmap.getConfig() == Bitmap.Config.ALPHA_8 ? mTintPaint : null);
+        } else {
+            // 图片还在后台解码，先画一个占位框
+            canvas.drawPath(mPath, mPlaceholderPaint);
+        }
+
+        //处于编辑状态太画边框和图标, 边框的Path和图标的位置在变换时已经算好
+        if (isEditable) {
+            // 1,画边框
+            canvas.drawPath(mPath, mPaint);
+            // 2,画图标
+            for (Drawable handle : mHandleDrawables) {
+                if (handle != null) handle.draw(canvas);
+            }
+        }
+
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if(!isEditable) return super.onTouchEvent(event);
+        switch(event.getActionMasked()){
+            case MotionEvent.ACTION_DOWN:
+                mActivePointerId = event.getPointerId(0);
+                mPreMovePointF.set(event.getX() + mViewPaddingLeft,event.getY() + mViewPaddingTop);
+                mStatus = judgeStatus(event.getX(), event.getY());
+                // 没有点中图片时不消费后续事件，交给下面的View处理
+                if (mStatus == STATUS_INIT) return false;
+                // 按住时停下正在进行的惯性滑动和回弹
+                stopSettle();
+                // 记录手势开始前的状态，包括上次手势之后通过代码做的修改
+                mHistory.record(mEngine);
+                trackVelocity(event, true);
+                if (mStatus == STATUS_DRAG) {
+                    enterGestureLayer();
+                    startGuides();
+                } else if (mStatus == STATUS_ROTATE_ZOOM) {
+                    mEngine.startRotateZoom(mPreMovePointF.x, mPreMovePointF.y);
+                }
+                scheduleStatsFrame();
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                // 第二个手指按下时，拖动和控制图标的旋转缩放都切换成双指手势
+                if (mStatus == STATUS_DRAG || mStatus == STATUS_ROTATE_ZOOM) {
+                    startPinch(event, event.getActionIndex());
+                }
+                trackVelocity(event, false);
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                trackVelocity(event, false);
+                onPointerUp(event);
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (mStatus == STATUS_HANDLE) {
+                    mStatus = STATUS_INIT;
+                    // 抬起时还在同一个图标上才算点击
+                    if (event.getActionMasked() == MotionEvent.ACTION_UP
+                            && handleAt(event.getX(), event.getY()) == mPressedHandle) {
+                        performHandleClick(mPressedHandle);
+                    }
+                    break;
+                }
+                boolean wasTransform = mStatus == STATUS_ROTATE_ZOOM || mStatus == STATUS_PINCH;
+                boolean wasDrag = mStatus == STATUS_DRAG;
+                mStatus = STATUS_INIT;
+                exitGestureLayer();
+                stopGuides();
+                if (mFlingEnabled) {
+                    trackVelocity(event, false);
+                    startSettle(wasDrag && event.getActionMasked() == MotionEvent.ACTION_UP);
+                }
+                // 一次手势只记录一条，有惯性滑动或回弹时等停下后再记录
+                if (!mFlinging && !mSpringing) {
+                    mHistory.record(mEngine);
+                }
+                // 缩放手势结束后再按新的缩放比例选择图片源的级别
+                if (wasTransform && (mSource != null || mTiledSource != null || mVectorSource != null) && !mSpringing) {
+                    transformDraw();
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mStatus == STATUS_HANDLE) break;
+                trackVelocity(event, false);
+                if (mCoalesceTouchEvents && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    // 把这次事件中的历史采样点和当前点都累积到变换中，下一个vsync时只刷新一次
+                    for (int i = 0, size = event.getHistorySize(); i < size; i++) {
+                        applyMove(event, i);
+                    }
+                    applyMove(event, -1);
+                    scheduleFrame();
+                    if (mMetricsListener != null && mPendingTouchCount < MAX_PENDING_TOUCHES) {
+                        // 延迟到下一个vsync刷新时再回调，队列满时只保留较早的事件，它们的延迟更大
+                        mPendingTouchTimes[mPendingTouchCount] = event.getEventTime();
+                        mPendingTouchActions[mPendingTouchCount] = event.getAction();
+                        mPendingTouchCount++;
+                    }
+                    return true;
+                } else {
+                    applyMove(event, -1);
+                    if (mStatus == STATUS_DRAG) {
+                        adjustLayout();
+                    } else if (mStatus == STATUS_ROTATE_ZOOM || mStatus == STATUS_PINCH) {
+                        transformDraw();
+                    }
+                }
+                break;
+        }
+        if (mMetricsListener != null) {
+            mMetricsListener.onTouchHandled(event.getAction(), System.nanoTime() - event.getEventTime() * 1000000L);
+        }
+        return  true;
+    }
+
+    /**
+     * 以当前的手指和下标为index的手指开始双指手势
+     */
+    private void startPinch(MotionEvent event, int index) {
+        int activeIndex = event.findPointerIndex(mActivePointerId);
+        if (activeIndex < 0 || activeIndex == index) return;
+        mSecondPointerId = event.getPointerId(index);
+        mStatus = STATUS_PINCH;
+        // 双指手势每帧都会改变内容，不使用硬件层
+        exitGestureLayer();
+        stopGuides();
+        mEngine.startPinch(event.getX(activeIndex) + mViewPaddingLeft, event.getY(activeIndex) + mViewPaddingTop,
+                event.getX(index) + mViewPaddingLeft, event.getY(index) + mViewPaddingTop);
+    }
+
+    /**
+     * 一个手指抬起：双指手势中抬起其中一个时用剩下的手指继续拖动，拖动的手指抬起时换成另一个手指
+     */
+    private void onPointerUp(MotionEvent event) {
+        int upIndex = event.getActionIndex();
+        int upId = event.getPointerId(upIndex);
+        if (mStatus == STATUS_PINCH) {
+            if (upId != mActivePointerId && upId != mSecondPointerId) return;
+            mActivePointerId = upId == mActivePointerId ? mSecondPointerId : mActivePointerId;
+            mStatus = STATUS_DRAG;
+            int index = event.findPointerIndex(mActivePointerId);
+            mPreMovePointF.set(event.getX(index) + mViewPaddingLeft, event.getY(index) + mViewPaddingTop);
+            // 双指手势结束，按新的缩放比例选择图片源的级别
+            transformDraw();
+            enterGestureLayer();
+            startGuides();
+        } else if (mStatus == STATUS_DRAG && upId == mActivePointerId) {
+            int index = upIndex == 0 ? 1 : 0;
+            mActivePointerId = event.getPointerId(index);
+            mPreMovePointF.set(event.getX(index) + mViewPaddingLeft, event.getY(index) + mViewPaddingTop);
+        }
+    }
+
+    /**
+     * 处理事件中的一个采样点，historyPos为-1时使用当前的位置，否则使用第historyPos个历史位置。
+     * 只修改中心点、角度和缩放比例，不刷新
+     */
+    private void applyMove(MotionEvent event, int historyPos) {
+        int index = event.findPointerIndex(mActivePointerId);
+        if (index < 0) return;
+        if (mStatus == STATUS_PINCH) {
+            int secondIndex = event.findPointerIndex(mSecondPointerId);
+            if (secondIndex < 0) return;
+            mEngine.pinch(getEventX(event, index, historyPos) + mViewPaddingLeft,
+                    getEventY(event, index, historyPos) + mViewPaddingTop,
+                    getEventX(event, secondIndex, historyPos) + mViewPaddingLeft,
+                    getEventY(event, secondIndex, historyPos) + mViewPaddingTop);
+        } else {
+            applyMove(getEventX(event, index, historyPos) + mViewPaddingLeft,
+                    getEventY(event, index, historyPos) + mViewPaddingTop);
+        }
+    }
+
+    private static float getEventX(MotionEvent event, int index, int historyPos) {
+        return historyPos < 0 ? event.getX(index) : event.getHistoricalX(index, historyPos);
+    }
+
+    private static float getEventY(MotionEvent event, int index, int historyPos) {
+        return historyPos < 0 ? event.getY(index) : event.getHistoricalY(index, historyPos);
+    }
+
+    /**
+     * 处理一个移动的采样点(相对于父布局的坐标)，只修改中心点、角度和缩放比例，不刷新
+     */
+    private void applyMove(float x, float y) {
+        mCurMovePointF.set(x, y);
+        if (mStatus == STATUS_DRAG && mGuidesActive) {
+            // 手指拖出的位置加上吸附到最近参考线的偏移
+            mDragCenterX += mCurMovePointF.x - mPreMovePointF.x;
+            mDragCenterY += mCurMovePointF.y - mPreMovePointF.y;
+            if (mGuides.snap(mDragCenterX, mDragCenterY, mEngine.getHalfBoundsWidth(), mEngine.getHalfBoundsHeight())
+                    && mGuideDrawable != null) {
+                mGuideDrawable.invalidateSelf();
+            }
+            mEngine.setCenter(mDragCenterX + mGuides.getSnapDx(), mDragCenterY + mGuides.getSnapDy());
+        } else if (mStatus == STATUS_DRAG) {
+            // 修改中心点
+            mEngine.offsetCenter(mCurMovePointF.x - mPreMovePointF.x, mCurMovePointF.y - mPreMovePointF.y);
+        } else if (mStatus == STATUS_ROTATE_ZOOM) {
+            mEngine.rotateZoom(mCurMovePointF.x, mCurMovePointF.y);
+        }
+        mPreMovePointF.set(mCurMovePointF);
+    }
+
+    /**
+     * 拖动开始时把父布局和其它可见的兄弟View的外接矩形放进参考线的边表，拖动中不再遍历兄弟View。
+     * SingleTouchView按图片旋转后的外接矩形计算，其它View按位置和大小计算
+     */
+    private void startGuides() {
+        if (!mGuidesEnabled || !(getParent() instanceof ViewGroup)) return;
+        ViewGroup parent = (ViewGroup) getParent();
+        mGuides.clear();
+        mGuides.add(0, 0, parent.getWidth(), parent.getHeight());
+        for (int i = 0, count = parent.getChildCount(); i < count; i++) {
+            View child = parent.getChildAt(i);
+            if (child == this || child.getVisibility() != VISIBLE) continue;
+            if (child instanceof SingleTouchView) {
+                TransformEngine engine = ((SingleTouchView) child).mEngine;
+                mGuides.add(engine.getCenterX() - engine.getHalfBoundsWidth(), engine.getCenterY() - engine.getHalfBoundsHeight(),
+                        engine.getCenterX() + engine.getHalfBoundsWidth(), engine.getCenterY() + engine.getHalfBoundsHeight());
+            } else {
+                mGuides.add(child.getX(), child.getY(), child.getX() + child.getWidth(), child.getY() + child.getHeight());
+            }
+        }
+        mGuides.sort();
+        mDragCenterX = mEngine.getCenterX();
+        mDragCenterY = mEngine.getCenterY();
+        mGuidesActive = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            if (mGuideDrawable == null) {
+                mGuideDrawable = new Drawable() {
+                    @Override
+                    public void draw(Canvas canvas) {
+                        mGuides.draw(canvas, mGuidePaint, getBounds().width(), getBounds().height());
+                    }
+
+                    @Override
+                    public void setAlpha(int alpha) {
+                    }
+
+                    @Override
+                    public void setColorFilter(ColorFilter cf) {
+                    }
+
+                    @Override
+                    public int getOpacity() {
+                        return PixelFormat.TRANSLUCENT;
+                    }
+                };
+            }
+            mGuideDrawable.setBounds(0, 0, parent.getWidth(), parent.getHeight());
+            parent.getOverlay().add(mGuideDrawable);
+            mGuideParent = parent;
+        }
+    }
+
+    /**
+     * 拖动结束，移除参考线
+     */
+    private void stopGuides() {
+        if (!mGuidesActive) return;
+        mGuidesActive = false;
+        mGuides.clear();
+        if (mGuideParent != null) {
+            mGuideParent.getOverlay().remove(mGuideDrawable);
+            mGuideParent = null;
+        }
+    }
+
+    /**
+     * 拖动开始时将View提升为硬件层。拖动只改变translation，图片、边框和控制图标在层中缓存，
+     * 每一帧只需要合成，不需要重新光栅化。旋转缩放时层的内容每帧都会变化，使用硬件层反而多一次绘制，所以不提升
+     */
+    private void enterGestureLayer() {
+        if (!mGestureLayerEnabled || !isHardwareAccelerated() || mLayerTypeBeforeGesture != -1) return;
+        // 按块解码的大图放大后View可能比最大纹理尺寸还大，不使用硬件层
+        if (mTiledSource != null) return;
+        mLayerTypeBeforeGesture = getLayerType();
+        if (mLayerTypeBeforeGesture != LAYER_TYPE_HARDWARE) {
+            setLayerType(LAYER_TYPE_HARDWARE, null);
+        }
+    }
+
+    /**
+     * 手势结束后恢复原来的layerType，释放硬件层占用的显存
+     */
+    private void exitGestureLayer() {
+        if (mLayerTypeBeforeGesture == -1) return;
+        if (mLayerTypeBeforeGesture != LAYER_TYPE_HARDWARE) {
+            setLayerType(mLayerTypeBeforeGesture, null);
+        }
+        mLayerTypeBeforeGesture = -1;
+    }
+
+    /**
+     * 把事件加入VelocityTracker。拖动时View本身在移动，事件先临时换算到父布局的坐标系，不创建新的MotionEvent
+     */
+    private void trackVelocity(MotionEvent event, boolean restart) {
+        if (!mFlingEnabled) return;
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        } else if (restart) {
+            mVelocityTracker.clear();
+        }
+        event.offsetLocation(mViewPaddingLeft, mViewPaddingTop);
+        mVelocityTracker.addMovement(event);
+        event.offsetLocation(-mViewPaddingLeft, -mViewPaddingTop);
+    }
+
+    /**
+     * 松手后开始惯性滑动(fling为true且速度足够时)，缩放比例超出范围时开始回弹
+     */
+    private void startSettle(boolean fling) {
+        if (fling && mVelocityTracker != null) {
+            mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+            mFlingVelocityX = mVelocityTracker.getXVelocity(mActivePointerId);
+            mFlingVelocityY = mVelocityTracker.getYVelocity(mActivePointerId);
+            mFlinging = Math.hypot(mFlingVelocityX, mFlingVelocityY) >= mMinFlingVelocity;
+        }
+        if (!mEngine.isScaleInRange()) {
+            mSpringVelocity = 0;
+            mSpringing = true;
+        }
+        if (!mFlinging && !mSpringing) return;
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // 没有Choreographer时不做动画，直接回到范围内
+            mFlinging = false;
+            mSpringing = false;
+            mEngine.setScale(mEngine.clampScale(mEngine.getScale()));
+            transformDraw();
+            return;
+        }
+        if (mSettleCallback == null) {
+            mSettleCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    settleFrame(frameTimeNanos);
+                }
+            };
+        }
+        mLastSettleFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(mSettleCallback);
+        scheduleStatsFrame();
+    }
+
+    /**
+     * 惯性滑动和回弹的一帧，结束后不再请求下一帧
+     */
+    private void settleFrame(long frameTimeNanos) {
+        float dt = mLastSettleFrameNanos == 0 ? FRAME_INTERVAL_NANOS / 1e9f
+                : Math.min((frameTimeNanos - mLastSettleFrameNanos) / 1e9f, MAX_SETTLE_FRAME_SECONDS);
+        mLastSettleFrameNanos = frameTimeNanos;
+
+        if (mFlinging) {
+            mEngine.offsetCenter(mFlingVelocityX * dt, mFlingVelocityY * dt);
+            float decay = (float) Math.exp(-FLING_FRICTION * dt);
+            mFlingVelocityX *= decay;
+            mFlingVelocityY *= decay;
+            mFlinging = Math.hypot(mFlingVelocityX, mFlingVelocityY) >= FLING_STOP_VELOCITY;
+        }
+        if (mSpringing) {
+            float scale = mEngine.getScale();
+            float target = mEngine.clampScale(scale);
+            // 半隐式欧拉积分: 先更新速度再更新位置
+            mSpringVelocity += (-SPRING_STIFFNESS * (scale - target) - SPRING_DAMPING * mSpringVelocity) * dt;
+            scale += mSpringVelocity * dt;
+            if (Math.abs(scale - target) < SPRING_STOP_THRESHOLD && Math.abs(mSpringVelocity) < SPRING_STOP_THRESHOLD) {
+                scale = target;
+                mSpringing = false;
+            }
+            mEngine.setScale(scale);
+            // 回弹结束时按最终的缩放比例选择图片源的级别
+            transformDraw();
+        } else {
+            adjustLayout();
+        }
+
+        if (mFlinging || mSpringing) {
+            Choreographer.getInstance().postFrameCallback(mSettleCallback);
+        } else {
+            mHistory.record(mEngine);
+        }
+    }
+
+    /**
+     * 停止惯性滑动和回弹，缩放比例超出范围时直接回到范围内
+     */
+    private void stopSettle() {
+        if (!mFlinging && !mSpringing) return;
+        Choreographer.getInstance().removeFrameCallback(mSettleCallback);
+        mFlinging = false;
+        if (mSpringing) {
+            mSpringing = false;
+            mEngine.setScale(mEngine.clampScale(mEngine.getScale()));
+            transformDraw();
+        }
+        mHistory.record(mEngine);
+    }
+
+    /**
+     * 在下一个vsync时刷新一次，一帧内多次调用只刷新一次
+     */
+    private void scheduleFrame() {
+        if (mStatus == STATUS_ROTATE_ZOOM || mStatus == STATUS_PINCH) {
+            mTransformPending = true;
+        }
+        if (mFrameScheduled) return;
+        mFrameScheduled = true;
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFrameScheduled = false;
+                    if (mTransformPending) {
+                        mTransformPending = false;
+                        transformDraw();
+                    } else {
+                        adjustLayout();
+                    }
+                    reportPendingTouches();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * 合并的触摸事件在这一帧刷新完后回调延迟
+     */
+    private void reportPendingTouches() {
+        int count = mPendingTouchCount;
+        mPendingTouchCount = 0;
+        if (mMetricsListener == null) return;
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            mMetricsListener.onTouchHandled(mPendingTouchActions[i], now - mPendingTouchTimes[i] * 1000000L);
+        }
+    }
+
+    /**
+     * 手势进行中在下一个vsync统计掉帧，回调里会继续请求下一帧直到手势、惯性滑动和回弹都结束。
+     * 没有设置统计回调或者API 16以下时不做任何事
+     */
+    private void scheduleStatsFrame() {
+        if (mMetricsListener == null || mStatsFrameScheduled
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+        mStatsFrameScheduled = true;
+        if (mStatsFrameCallback == null) {
+            mStatsFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mStatsFrameScheduled = false;
+                    onStatsFrame(frameTimeNanos);
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(mStatsFrameCallback);
+    }
+
+    private void onStatsFrame(long frameTimeNanos) {
+        if (mMetricsListener == null || (mStatus == STATUS_INIT && !mFlinging && !mSpringing)) {
+            mLastGestureFrameNanos = 0;
+            return;
+        }
+        int droppedFrames = 0;
+        if (mLastGestureFrameNanos != 0) {
+            // 两个vsync之间超过1.5帧才认为掉帧
+            long interval = frameTimeNanos - mLastGestureFrameNanos;
+            if (interval > mFrameIntervalNanos * 3 / 2) {
+                droppedFrames = (int) ((interval + mFrameIntervalNanos / 2) / mFrameIntervalNanos) - 1;
+            }
+        }
+        mLastGestureFrameNanos = frameTimeNanos;
+        mMetricsListener.onGestureFrame(frameTimeNanos, droppedFrames);
+        scheduleStatsFrame();
+    }
+
+    /**
+     * 设置matrix,强制刷新
+     */
+    private void transformDraw() {
+        updateSourceBitmap();
+        if (mImageWidth == 0 || mImageHeight == 0) return;
+
+        // 变换前四边形占用的区域
+        mDirtyRect.setEmpty();
+        unionQuadArea(mDirtyRect);
+
+        // 计算四个点和View的大小
+        mEngine.setImageSize(mImageWidth, mImageHeight);
+        mEngine.setPadding(framePadding);
+        mEngine.update();
+        computeRect();
+
+        // 图片的中心画在View的中心, mBitmap的分辨率可能低于显示大小，在矩阵中一起换算
+        if (mTiledSource != null) {
+            mEngine.getMatrixValues(mMatrixValues, mImageWidth, mImageHeight,
+                    (mViewWidth + mDrawableWidth) / 2f, (mViewHeight + mDrawableHeight) / 2f);
+            matrix.setValues(mMatrixValues);
+        } else if (mBitmap != null) {
+            mEngine.getMatrixValues(mMatrixValues, mBitmap.getWidth(), mBitmap.getHeight(),
+                    (mViewWidth + mDrawableWidth) / 2f, (mViewHeight + mDrawableHeight) / 2f);
+            matrix.setValues(mMatrixValues);
+        }
+
+        // 大小变化时layout会重绘整个View，否则只重绘变换前后四边形的并集
+        unionQuadArea(mDirtyRect);
+        if (!adjustLayout()) {
+            invalidate(mDirtyRect);
+        }
+    }
+
+    /**
+     * 将四边形的外接矩形(加上边框线宽)和控制图标的区域并入rect，View的坐标系
+     */
+    private void unionQuadArea(Rect rect) {
+        int left = Math.min(Math.min(mLTPoint.x, mRTPoint.x), Math.min(mRBPoint.x, mLBPoint.x));
+        int top = Math.min(Math.min(mLTPoint.y, mRTPoint.y), Math.min(mRBPoint.y, mLBPoint.y));
+        int right = Math.max(Math.max(mLTPoint.x, mRTPoint.x), Math.max(mRBPoint.x, mLBPoint.x));
+        int bottom = Math.max(Math.max(mLTPoint.y, mRTPoint.y), Math.max(mRBPoint.y, mLBPoint.y));
+        // 线宽一半在四边形外，多留1像素给抗锯齿
+        int stroke = frameWidth / 2 + 1;
+        rect.union(left - stroke, top - stroke, right + stroke, bottom + stroke);
+        for (Drawable handle : mHandleDrawables) {
+            if (handle != null) rect.union(handle.getBounds());
+        }
+    }
+
+    /**
+     * 只重绘四边形和控制图标占用的区域，用于边框、控制图标的外观变化
+     */
+    private void invalidateQuadArea() {
+        mDirtyRect.setEmpty();
+        unionQuadArea(mDirtyRect);
+        invalidate(mDirtyRect);
+    }
+
+    /**
+     * 根据当前缩放比例从图片源中选择mBitmap使用的级别。
+     * 异步模式下需要的级别还没解码时先继续使用当前的Bitmap(或占位框)，在后台解码完成后再刷新。
+     * 矢量图片源在缩放比例跨过量化的级别时重新光栅化
+     */
+    private void updateSourceBitmap() {
+        // 缩放手势进行中不切换级别，避免手势过程中反复解码
+        if (mStatus == STATUS_ROTATE_ZOOM || mStatus == STATUS_PINCH || mSpringing) return;
+        // 内存不足时释放的图片等重新可见时再解码
+        if (mTrimmed) return;
+        if (mVectorSource != null) {
+            Bitmap bitmap = mVectorSource.getBitmap(mEngine.getScale());
+            if (bitmap != null) mBitmap = bitmap;
+            return;
+        }
+        if (mSource == null) return;
+        int level = mSource.levelForScale(mEngine.getScale());
+        if (!mAsyncLoad) {
+            Bitmap bitmap = mSource.getLevel(level);
+            if (bitmap != null) mBitmap = bitmap;
+            return;
+        }
+
+        Bitmap ready = mSource.getLevelIfReady(level);
+        if (ready != null) {
+            cancelPendingLoad();
+            mBitmap = ready;
+            return;
+        }
+        if (mPendingLoad != null && mPendingLevel == level) return;
+
+        cancelPendingLoad();
+        mPendingLevel = level;
+        mPendingLoad = mSource.loadLevelAsync(level, new MipmapSource.LevelCallback() {
+            @Override
+            public void onLevelLoaded(int level, Bitmap bitmap) {
+                mPendingLoad = null;
+                if (bitmap != null) {
+                    transformDraw();
+                }
+            }
+        });
+    }
+
+    /**
+     * 取消正在后台解码的任务
+     */
+    private void cancelPendingLoad() {
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel();
+            mPendingLoad = null;
+        }
+    }
+
+    /**
+     * 根据TransformEngine计算的结果获取View的大小和四个点在View中的坐标, 结果直接写入预先分配的四个点中
+     */
+    private void computeRect() {
+        mViewWidth = (int) Math.ceil(mEngine.getHalfBoundsWidth() * 2);
+        mViewHeight = (int) Math.ceil(mEngine.getHalfBoundsHeight() * 2);
+
+        //图片中心在View中的坐标
+        float viewCenterX = (mViewWidth + mDrawableWidth) / 2f;
+        float viewCenterY = (mViewHeight + mDrawableHeight) / 2f;
+
+        obtainCornerPoint(TransformEngine.LEFT_TOP, viewCenterX, viewCenterY, mLTPoint);
+        obtainCornerPoint(TransformEngine.RIGHT_TOP, viewCenterX, viewCenterY, mRTPoint);
+        obtainCornerPoint(TransformEngine.RIGHT_BOTTOM, viewCenterX, viewCenterY, mRBPoint);
+        obtainCornerPoint(TransformEngine.LEFT_BOTTOM, viewCenterX, viewCenterY, mLBPoint);
+
+        mControlPoint = LocationToPoint(mHandleLocations[HANDLE_ROTATE_ZOOM]);
+
+        // 外围框和图标的位置只在这里更新，onDraw时不再修改
+        mPath.reset();
+        mPath.moveTo(mLTPoint.x, mLTPoint.y);
+        mPath.lineTo(mRTPoint.x, mRTPoint.y);
+        mPath.lineTo(mRBPoint.x, mRBPoint.y);
+        mPath.lineTo(mLBPoint.x, mLBPoint.y);
+        mPath.close();
+        for (int i = 0; i < HANDLE_COUNT; i++) {
+            Drawable handle = mHandleDrawables[i];
+            if (handle == null) continue;
+            Point point = LocationToPoint(mHandleLocations[i]);
+            int halfWidth = handle.getIntrinsicWidth() / 2;
+            int halfHeight = handle.getIntrinsicHeight() / 2;
+            handle.setBounds(point.x - halfWidth, point.y - halfHeight, point.x + halfWidth, point.y + halfHeight);
+        }
+    }
+
+    /**
+     * 所有图标中最大的宽和高
+     */
+    private void updateHandleSize() {
+        mDrawableWidth = 0;
+        mDrawableHeight = 0;
+        for (Drawable handle : mHandleDrawables) {
+            if (handle == null) continue;
+            mDrawableWidth = Math.max(mDrawableWidth, handle.getIntrinsicWidth());
+            mDrawableHeight = Math.max(mDrawableHeight, handle.getIntrinsicHeight());
+        }
+    }
+
+    /**
+     * 将第index个角平移到View的坐标系中，结果写入out
+     */
+    private void obtainCornerPoint(int index, float viewCenterX, float viewCenterY, Point out) {
+        out.x = Math.round(viewCenterX + mEngine.getCornerX(index));
+        out.y = Math.round(viewCenterY + mEngine.getCornerY(index));
+    }
+
+    /**
+     * 根据位置判断控制图标处于那个点
+     */
+    private Point LocationToPoint(int location) {
+        switch (location) {
+            case LEFT_TOP:
+                return mLTPoint;
+            case RIGHT_TOP:
+                return mRTPoint;
+            case RIGHT_BOTTOM:
+                return mRBPoint;
+            case LEFT_BOTTOM:
+                return mLBPoint;
+        }
+        return mLTPoint;
+    }
+
+    /**
+     * 点(x, y)所在的图标，没有点中任何图标时返回-1。后画的图标在上面，优先判断
+     */
+    private int handleAt(float x, float y) {
+        for (int i = HANDLE_COUNT - 1; i >= 0; i--) {
+            Drawable handle = mHandleDrawables[i];
+            if (handle == null) continue;
+            Rect bounds = handle.getBounds();
+            //点击的点到图标中心的距离小于图标宽度，高度的最小值的一半，则认为点中了图标
+            float distance = PointF.length(x - bounds.centerX(), y - bounds.centerY());
+            if (distance < Math.min(bounds.width(), bounds.height()) / 2) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 点击了删除或翻转图标
+     */
+    private void performHandleClick(int handle) {
+        if (handle == HANDLE_FLIP) {
+            mEngine.setFlipped(!mEngine.isFlipped());
+            transformDraw();
+            // 翻转可以撤销，按下时已经记录了翻转前的状态
+            mHistory.record(mEngine);
+        }
+        if (mOnHandleClickListener != null) {
+            mOnHandleClickListener.onHandleClick(this, handle);
+        }
+    }
+
+    /**
+     * 根据点击的位置判断是否点中控制旋转，缩放的图片， 初略的计算
+     */
+    private int judgeStatus(float x, float y) {
+        int handle = handleAt(x, y);
+        if (handle == HANDLE_ROTATE_ZOOM) {
+            return STATUS_ROTATE_ZOOM;
+        } else if (handle != -1) {
+            mPressedHandle = handle;
+            return STATUS_HANDLE;
+        }
+
+        //点在旋转后的四边形内才认为是拖动
+        if (isPointInQuad(x, y)) {
+            return STATUS_DRAG;
+        }
+
+        return STATUS_INIT;
+    }
+
+    /**
+     * View中的点(x, y)是否在旋转后的四个角围成的四边形内(包括边框间距)
+     */
+    private boolean isPointInQuad(float x, float y) {
+        return mEngine.contains(x + mViewPaddingLeft, y + mViewPaddingTop);
+    }
+
+    /**
+     * 创建按outputWidth * outputHeight导出父布局范围内编辑结果的ExportRenderer，
+     * 图片源在导出线程中按每一块输出需要的分辨率解码，超大图片只解码这一块需要的区域，画完即释放。
+     * 背景需要调用者另外设置。没有图片、还没有布局或者光栅化时内存不足都返回null
+     */
+    public ExportRenderer newExportRenderer(int outputWidth, int outputHeight) {
+        ViewGroup parent = (ViewGroup) getParent();
+        if (parent == null || parent.getWidth() == 0 || parent.getHeight() == 0) return null;
+        if (mSource == null && mBitmap == null && mTiledSource == null && mVectorSource == null) return null;
+
+        ExportRenderer renderer = new ExportRenderer(parent.getWidth(), parent.getHeight(), outputWidth, outputHeight);
+        if (mSource == null && mTiledSource == null && mVectorSource == null) {
+            renderer.addLayer(mBitmap, mEngine, mTintPaint.getColor());
+            return renderer;
+        }
+        if (mTiledSource == null && mVectorSource != null && !mVectorSource.canRasterizeInBackground()) {
+            // 没有ConstantState的Drawable不能在导出线程中绘制，在这里按输出的分辨率光栅化
+            Bitmap raster = mVectorSource.rasterizeCopy(mEngine.getScale() * renderer.getScale());
+            if (raster == null) return null;
+            renderer.addLayer(raster, mEngine, mTintPaint.getColor());
+            return renderer;
+        }
+        final MipmapSource source = mSource;
+        final TiledSource tiledSource = mTiledSource;
+        final VectorSource vectorSource = mVectorSource;
+        renderer.addLayer(new ExportRenderer.LayerSource() {
+            @Override
+            public Bitmap decode(float scale, RectF region) {
+                if (tiledSource != null) return tiledSource.decodeRegion(region, scale);
+                region.set(0, 0, mImageWidth, mImageHeight);
+                if (vectorSource != null) return vectorSource.rasterizeCopy(scale);
+                return source.decodeLevel(source.levelForScale(scale));
+            }
+
+            @Override
+            public void release(Bitmap bitmap) {
+                // 都是导出时新解码的，不与View共享
+                bitmap.recycle();
+            }
+        }, mEngine, mTintPaint.getColor());
+        return renderer;
     }
 
-
+    /**
+     * 设置旋转图
+     */
+    public void setImageBitmap(Bitmap bitmap) {
+        setBitmapInternal(bitmap);
+        transformDraw();
+    }
+
+
     /**
      * 设置旋转图
      */
     public void setImageDrawable(Drawable drawable) {
-        this.mBitmap = drawable2Bitmap(drawable);
+        if (drawable == null || drawable instanceof BitmapDrawable) {
+            setBitmapInternal(drawable2Bitmap(drawable));
+        } else {
+            // shape等非位图的Drawable按缩放比例光栅化
+            setVectorInternal(drawable, 0);
+        }
         transformDraw();
     }
 
     /**
-     * 根据id设置旋转图
+     * 根据id设置旋转图，位图资源按当前缩放比例采样解码，放大时再解码更高的分辨率
      */
     public void setImageResource(int resId) {
+        MipmapSource source = MipmapSource.fromResource(getResources(), resId);
+        if (source == null) {
+            setRasterizedResource(resId);
+            return;
+        }
+        setBitmapInternal(null);
+        source.setConfig(resolvePixelConfig(source.isOpaque()));
+        mSource = source;
+        mImageResId = resId;
+        mImageWidth = source.getWidth();
+        mImageHeight = source.getHeight();
+        transformDraw();
+    }
+
+    /**
+     * 根据id异步设置旋转图。位图资源只在UI线程读取大小，解码在后台线程进行，
+     * 解码完成前显示一个占位框，之后缩放时需要的更高分辨率也在后台解码。
+     * 非位图资源(shape等)解码很快，仍然同步设置
+     */
+    public void setImageResourceAsync(int resId) {
+        MipmapSource source = MipmapSource.fromResource(getResources(), resId);
+        if (source == null) {
+            setRasterizedResource(resId);
+            return;
+        }
+        setBitmapInternal(null);
+        source.setConfig(resolvePixelConfig(source.isOpaque()));
+        mSource = source;
+        mImageResId = resId;
+        mAsyncLoad = true;
+        mImageWidth = source.getWidth();
+        mImageHeight = source.getHeight();
+        transformDraw();
+    }
+
+    /**
+     * 设置贴图集中的第index个贴图，像素直接从映射的文件中复制，不需要解码，同一贴图在多个View中共享同一个Bitmap
+     */
+    public void setImageFromPack(StickerPack pack, int index) {
+        setBitmapInternal(pack.acquire(index));
+        mBitmapCacheKey = pack.cacheKey(index);
+        mPackSource = pack.sourceOf(index);
+        transformDraw();
+    }
+
+    /**
+     * 设置按块解码的超大图片，只在后台解码可见区域需要的块，适合几千万像素的照片。
+     * source由View持有，更换图片时释放
+     */
+    public void setImageTiledSource(TiledSource source) {
+        setBitmapInternal(null);
+        if (source == null) {
+            transformDraw();
+            return;
+        }
+        // 块的绘制不经过着色的画笔，超大照片也不适合单色，不使用ALPHA_8
+        Bitmap.Config config = resolvePixelConfig(source.isOpaque());
+        source.setConfig(config == Bitmap.Config.ALPHA_8 ? Bitmap.Config.ARGB_8888 : config);
+        mTiledSource = source;
+        mImageWidth = source.getWidth();
+        mImageHeight = source.getHeight();
+        source.setListener(new TiledSource.Listener() {
+            @Override
+            public void onTileLoaded(TiledSource source) {
+                invalidateQuadArea();
+            }
+        });
+        transformDraw();
+    }
+
+    /**
+     * 非位图资源(shape等)按当前缩放比例光栅化，放大时重新光栅化保持清晰。
+     * 光栅化结果放入共享的BitmapCache，同一资源的同一级多次使用时只光栅化一次
+     */
+    private void setRasterizedResource(int resId) {
         Drawable drawable = getContext().getResources().getDrawable(resId);
-        setImageDrawable(drawable);
+        if (drawable instanceof BitmapDrawable) {
+            setBitmapInternal(((BitmapDrawable) drawable).getBitmap());
+            mImageResId = resId;
+            transformDraw();
+            return;
+        }
+        setVectorInternal(drawable, resId);
+        transformDraw();
+    }
+
+    /**
+     * 使用矢量图片源，缩放比例为1时的大小为Drawable的固有大小，没有固有大小时使用默认值
+     */
+    private void setVectorInternal(Drawable drawable, int resId) {
+        setBitmapInternal(null);
+        int intrinsicWidth = drawable.getIntrinsicWidth();
+        int intrinsicHeight = drawable.getIntrinsicHeight();
+        mVectorSource = new VectorSource(drawable, resId,
+                intrinsicWidth <= 0 ? DEFAULT_OTHER_DRAWABLE_WIDTH : intrinsicWidth,
+                intrinsicHeight <= 0 ? DEFAULT_OTHER_DRAWABLE_HEIGHT : intrinsicHeight);
+        mVectorSource.setConfig(resolvePixelConfig(false));
+        mImageResId = resId;
+        mImageWidth = mVectorSource.getWidth();
+        mImageHeight = mVectorSource.getHeight();
+    }
+
+    /**
+     * 按设置的像素格式和着色选择图片源使用的Config
+     *
+     * @param opaque 图片是否一定不透明
+     */
+    Bitmap.Config resolvePixelConfig(boolean opaque) {
+        if (mPixelConfig != null) return mPixelConfig;
+        if (mTinted) return Bitmap.Config.ALPHA_8;
+        return opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    public Bitmap.Config getPixelConfig() {
+        return mPixelConfig;
+    }
+
+    /**
+     * 设置之后的图片源(资源、矢量图、超大图片)解码使用的Config，null为自动选择。
+     * RGB_565的内存为一半，没有alpha通道；ALPHA_8的内存为四分之一，只保留形状，按着色的颜色绘制，适合单色图标。
+     * 直接设置的Bitmap和贴图集中的贴图保持原来的Config，其中ALPHA_8的同样按着色的颜色绘制
+     */
+    public void setPixelConfig(Bitmap.Config config) {
+        mPixelConfig = config;
+    }
+
+    /**
+     * 设置ALPHA_8图片绘制时的颜色，自动选择Config时之后设置的图片源使用ALPHA_8
+     */
+    public void setTintColor(int color) {
+        mTinted = true;
+        mTintPaint.setColor(color);
+        invalidateQuadArea();
+    }
+
+    /**
+     * 清除着色，ALPHA_8图片恢复为黑色
+     */
+    public void clearTint() {
+        mTinted = false;
+        mTintPaint.setColor(Color.BLACK);
+        invalidateQuadArea();
+    }
+
+    public boolean isTinted() {
+        return mTinted;
+    }
+
+    public int getTintColor() {
+        return mTintPaint.getColor();
+    }
+
+    /**
+     * 设置固定的Bitmap，不再使用图片源
+     */
+    private void setBitmapInternal(Bitmap bitmap) {
+        cancelPendingLoad();
+        mAsyncLoad = false;
+        mTrimmed = false;
+        if (mSource != null) {
+            mSource.release();
+            mSource = null;
+        }
+        if (mTiledSource != null) {
+            mTiledSource.release();
+            mTiledSource = null;
+        }
+        if (mVectorSource != null) {
+            mVectorSource.release();
+            mVectorSource = null;
+        }
+        if (mBitmapCacheKey != null) {
+            BitmapCache.getInstance().release(mBitmapCacheKey);
+            mBitmapCacheKey = null;
+        }
+        mBitmap = bitmap;
+        mImageResId = 0;
+        mPackSource = null;
+        mImageWidth = bitmap == null ? 0 : bitmap.getWidth();
+        mImageHeight = bitmap == null ? 0 : bitmap.getHeight();
     }
 
     public float getImageDegree() {
-        return mDegree;
+        return mEngine.getDegree();
     }
 
     /**
      * 设置图片旋转角度
      */
     public void setImageDegree(float degree) {
-        if (this.mDegree != degree) {
-            this.mDegree = degree;
+        if (mEngine.getDegree() != degree) {
+            mEngine.setDegree(degree);
             transformDraw();
         }
     }
 
     public float getImageScale() {
-        return mScale;
+        return mEngine.getScale();
     }
 
     /**
      * 设置图片缩放比例
      */
     public void setImageScale(float scale) {
-        if (this.mScale != scale) {
-            this.mScale = scale;
+        if (mEngine.getScale() != scale) {
+            mEngine.setScale(scale);
             transformDraw();
         }
     }
 
     public Drawable getControlDrawable() {
-        return controlDrawable;
+        return mHandleDrawables[HANDLE_ROTATE_ZOOM];
     }
 
     /**
@@ -607,12 +1950,51 @@ public class SingleTouchView extends View {
      */
     public void setControlDrawable(Drawable drawable) {
         if (drawable == null) return;
-        this.controlDrawable = drawable;
-        mDrawableWidth = drawable.getIntrinsicWidth();
-        mDrawableHeight = drawable.getIntrinsicHeight();
+        setHandleDrawable(HANDLE_ROTATE_ZOOM, drawable);
+    }
+
+    public Drawable getHandleDrawable(int handle) {
+        return mHandleDrawables[handle];
+    }
+
+    /**
+     * 设置HANDLE_*对应的图标，删除、翻转图标传入null时不显示
+     */
+    public void setHandleDrawable(int handle, Drawable drawable) {
+        if (handle == HANDLE_ROTATE_ZOOM && drawable == null) return;
+        if (mHandleDrawables[handle] == drawable) return;
+        // 原来的图标所在的区域也要重绘
+        invalidateQuadArea();
+        mHandleDrawables[handle] = drawable;
+        updateHandleSize();
         transformDraw();
     }
 
+    public int getHandleLocation(int handle) {
+        return mHandleLocations[handle];
+    }
+
+    /**
+     * 设置HANDLE_*对应的图标的位置, 设置的值只能选择LEFT_TOP ，RIGHT_TOP， RIGHT_BOTTOM，LEFT_BOTTOM
+     */
+    public void setHandleLocation(int handle, int location) {
+        if (mHandleLocations[handle] != location) {
+            mHandleLocations[handle] = location;
+            transformDraw();
+        }
+    }
+
+    public OnHandleClickListener getOnHandleClickListener() {
+        return mOnHandleClickListener;
+    }
+
+    /**
+     * 设置点击删除、翻转图标的回调
+     */
+    public void setOnHandleClickListener(OnHandleClickListener listener) {
+        this.mOnHandleClickListener = listener;
+    }
+
     public int getFrameColor() {
         return frameColor;
     }
@@ -632,7 +2014,7 @@ public class SingleTouchView extends View {
         if (this.frameColor != frameColor) {
             this.frameColor = frameColor;
             mPaint.setColor(frameColor);
-            invalidate();
+            invalidateQuadArea();
         }
     }
 
@@ -642,9 +2024,11 @@ public class SingleTouchView extends View {
 
     public void setFrameWidth(int frameWidth) {
         if (this.frameWidth != frameWidth) {
+            // 线宽变化前后的区域都要重绘
+            invalidateQuadArea();
             this.frameWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, frameWidth, metrics);
             mPaint.setStrokeWidth(frameWidth);
-            invalidate();
+            invalidateQuadArea();
         }
     }
 
@@ -652,28 +2036,216 @@ public class SingleTouchView extends View {
      * 设置控制图标的位置, 设置的值只能选择LEFT_TOP ，RIGHT_TOP， RIGHT_BOTTOM，LEFT_BOTTOM
      */
     public void setControlLocation(int location) {
-        if (this.controlLocation != location) {
-            this.controlLocation = location;
-            transformDraw();
-        }
+        setHandleLocation(HANDLE_ROTATE_ZOOM, location);
     }
 
     public int getControlLocation() {
-        return controlLocation;
+        return mHandleLocations[HANDLE_ROTATE_ZOOM];
     }
 
+    /**
+     * 图片中心点的副本，相对于父布局而言。
+     * 中心点保存在TransformEngine中，返回的PointF不会随之更新，修改它也不会移动图片，需要调用setCenterPoint
+     */
     public PointF getCenterPoint() {
-        return mCenterPoint;
+        return getCenterPoint(new PointF());
+    }
+
+    /**
+     * 将图片中心点写入out并返回out，不分配对象
+     */
+    public PointF getCenterPoint(PointF out) {
+        out.set(mEngine.getCenterX(), mEngine.getCenterY());
+        return out;
     }
 
     /**
      * 设置图片中心点位置，相对于父布局而言
      */
-    public void setCenterPoint(PointF mCenterPoint) {
-        this.mCenterPoint = mCenterPoint;
+    public void setCenterPoint(PointF centerPoint) {
+        mEngine.setCenter(centerPoint.x, centerPoint.y);
+        mHasCenter = true;
         adjustLayout();
     }
 
+    /**
+     * 撤销上一次手势(或通过代码做的修改)
+     *
+     * @return 没有可以撤销的记录时返回false
+     */
+    public boolean undo() {
+        stopSettle();
+        mHistory.record(mEngine);
+        if (!mHistory.undo(mEngine)) return false;
+        transformDraw();
+        return true;
+    }
+
+    /**
+     * 重做被撤销的手势
+     *
+     * @return 没有可以重做的记录时返回false
+     */
+    public boolean redo() {
+        stopSettle();
+        if (!mHistory.redo(mEngine)) return false;
+        transformDraw();
+        return true;
+    }
+
+    public boolean canUndo() {
+        return mHistory.canUndo();
+    }
+
+    public boolean canRedo() {
+        return mHistory.canRedo();
+    }
+
+    public void clearHistory() {
+        mHistory.clear();
+    }
+
+    public int getHistoryCapacity() {
+        return mHistory.getCapacity();
+    }
+
+    /**
+     * 设置最多保存的撤销记录数，默认TransformHistory.DEFAULT_CAPACITY
+     */
+    public void setHistoryCapacity(int capacity) {
+        mHistory.setCapacity(capacity);
+    }
+
+    public boolean isGestureLayerEnabled() {
+        return mGestureLayerEnabled;
+    }
+
+    /**
+     * 设置拖动时是否将View提升为硬件层，拖动结束后恢复。只在硬件加速时生效
+     */
+    public void setGestureLayerEnabled(boolean enabled) {
+        this.mGestureLayerEnabled = enabled;
+        if (!enabled) {
+            exitGestureLayer();
+        }
+    }
+
+    public boolean isCoalesceTouchEvents() {
+        return mCoalesceTouchEvents;
+    }
+
+    /**
+     * 设置是否合并触摸事件：打开后一个MOVE事件中的历史采样点也会累积到旋转、缩放中，
+     * 并且一帧内收到的所有事件只在下一个vsync时刷新一次。需要API 16，更低的版本仍然逐个事件刷新
+     */
+    public void setCoalesceTouchEvents(boolean coalesce) {
+        this.mCoalesceTouchEvents = coalesce;
+    }
+
+    public boolean isFlingEnabled() {
+        return mFlingEnabled;
+    }
+
+    /**
+     * 设置松手后是否惯性滑动。打开后旋转缩放时可以带阻尼地超出MIN_SCALE、MAX_SCALE，松手后回弹到范围内。
+     * 动画跟随vsync，每帧不创建对象，停下后不再请求回调。需要API 16，更低的版本松手后直接回到范围内
+     */
+    public void setFlingEnabled(boolean enabled) {
+        this.mFlingEnabled = enabled;
+        mEngine.setElasticScale(enabled);
+        if (!enabled) {
+            stopSettle();
+        }
+    }
+
+    public float getSnapAngle() {
+        return mEngine.getSnapStep();
+    }
+
+    /**
+     * 设置旋转时吸附的角度间隔，例如90时在0、90、180、270度附近(DEFAULT_SNAP_TOLERANCE以内)吸附，0为不吸附
+     */
+    public void setSnapAngle(float snapAngle) {
+        mEngine.setAngleSnap(snapAngle, TransformEngine.DEFAULT_SNAP_TOLERANCE);
+    }
+
+    public boolean isOcclusionCullingEnabled() {
+        return mOcclusionCullingEnabled;
+    }
+
+    /**
+     * 设置被父布局中上层的兄弟View完全挡住时是否跳过绘制，默认开启。
+     * 只有没有旋转、缩放，alpha为1并且isOpaque()的兄弟View算作遮挡。遮挡只在布局变化、自己移动后重新检查，
+     * 兄弟View只改变translation、alpha或可见性而没有重新布局时，需要调用invalidateOcclusion()，否则它移开后这里仍然不绘制
+     */
+    public void setOcclusionCullingEnabled(boolean enabled) {
+        mOcclusionCullingEnabled = enabled;
+        invalidateOcclusion();
+    }
+
+    /**
+     * 兄弟View在没有重新布局的情况下移动、改变alpha或可见性后调用，下一帧绘制前重新检查是否被挡住
+     */
+    public void invalidateOcclusion() {
+        mOcclusionDirty = true;
+        invalidate();
+    }
+
+    public boolean isAlignmentGuidesEnabled() {
+        return mGuidesEnabled;
+    }
+
+    /**
+     * 设置拖动时是否吸附到父布局和兄弟View的左、中、右以及上、中、下，并在父布局上显示参考线(需要API 18)
+     */
+    public void setAlignmentGuidesEnabled(boolean enabled) {
+        this.mGuidesEnabled = enabled;
+        if (!enabled) {
+            stopGuides();
+        }
+    }
+
+    /**
+     * 拖动时吸附到参考线的距离，单位px
+     */
+    public float getAlignmentGuideThreshold() {
+        return mGuides.getThreshold();
+    }
+
+    /**
+     * 设置拖动时吸附到参考线的距离，单位px，默认为DEFAULT_GUIDE_THRESHOLD dp
+     */
+    public void setAlignmentGuideThreshold(float threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("threshold must not be negative");
+        mGuides.setThreshold(threshold);
+    }
+
+    public void setGuideColor(int color) {
+        mGuidePaint.setColor(color);
+        if (mGuideDrawable != null) {
+            mGuideDrawable.invalidateSelf();
+        }
+    }
+
+    public OnMetricsListener getOnMetricsListener() {
+        return mMetricsListener;
+    }
+
+    /**
+     * 设置性能统计的回调，传入null关闭统计。可以使用GestureFrameStats收集直方图
+     */
+    public void setOnMetricsListener(OnMetricsListener listener) {
+        this.mMetricsListener = listener;
+        mLastGestureFrameNanos = 0;
+        mPendingTouchCount = 0;
+        if (listener != null) {
+            float refreshRate = ((WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE))
+                    .getDefaultDisplay().getRefreshRate();
+            mFrameIntervalNanos = refreshRate > 1 ? (long) (1000000000L / refreshRate) : FRAME_INTERVAL_NANOS;
+            scheduleStatsFrame();
+        }
+    }
+
     public boolean isEditable() {
         return isEditable;
     }
@@ -688,25 +2260,29 @@ public class SingleTouchView extends View {
      */
     public void setEditable(boolean isEditable) {
         this.isEditable = isEditable;
-        invalidate();
+        invalidateQuadArea();
     }
 
     /**
-     * 获取变长参数最大的值
+     * 获取变长参数最大的值。保留原来的签名，View内部不再使用，改为直接比较基本类型
      */
     public int getMaxValue(Integer... array) {
-        List<Integer> list = Arrays.asList(array);
-        Collections.sort(list);
-        return list.get(list.size() - 1);
+        int max = array[0];
+        for (int i = 1; i < array.length; i++) {
+            if (array[i] > max) max = array[i];
+        }
+        return max;
     }
 
 
     /**
-     * 获取变长参数最大的值
+     * 获取变长参数最小的值。保留原来的签名，View内部不再使用，改为直接比较基本类型
      */
     public int getMinValue(Integer... array) {
-        List<Integer> list = Arrays.asList(array);
-        Collections.sort(list);
-        return list.get(0);
+        int min = array[0];
+        for (int i = 1; i < array.length; i++) {
+            if (array[i] < min) min = array[i];
+        }
+        return min;
     }
 }
@@ -0,0 +1,180 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * StickerCanvasView中的一个可平移、缩放、旋转的贴图。
+ * 只保存变换状态和由变换计算出来的四个角、外接矩形以及绘制用的matrix，本身不是View。
+ */
+public class Sticker {
+    /**
+     * 贴图的Bitmap
+     */
+    private Bitmap mBitmap;
+    /**
+     * 中心点、角度、缩放比例等变换状态及其计算
+     */
+    private final TransformEngine mEngine = new TransformEngine();
+    /**
+     * 用于绘制贴图的矩阵
+     */
+    private final Matrix matrix = new Matrix();
+    private final float[] mMatrixValues = new float[9];
+    /**
+     * 加上边框间距后四个角的坐标, 依次为左上，右上，右下，左下的x, y
+     */
+    private final float[] mQuad = new float[8];
+    /**
+     * 四个角的外接矩形
+     */
+    private final RectF mBounds = new RectF();
+    /**
+     * z序，值越大越靠上
+     */
+    private int mZOrder;
+    /**
+     * 在StickerGrid中登记的格子范围，mCellLeft > mCellRight表示未登记
+     */
+    int mCellLeft = 0, mCellTop = 0, mCellRight = -1, mCellBottom = -1;
+    /**
+     * mBitmap来自BitmapCache时对应的key，移除贴图时需要释放
+     */
+    String mCacheKey;
+    /**
+     * 图片来源的引用，用于保存和恢复状态，没有时为null，见TransformState
+     */
+    String mSource;
+
+    Sticker(Bitmap bitmap, float centerX, float centerY) {
+        mBitmap = bitmap;
+        mEngine.setCenter(centerX, centerY);
+    }
+
+    /**
+     * 根据当前的中心点、角度、缩放比例重新计算matrix、四个角和外接矩形
+     *
+     * @param framePadding 边框与图片之间的间距
+     */
+    void update(int framePadding) {
+        mEngine.setImageSize(mBitmap.getWidth(), mBitmap.getHeight());
+        mEngine.setPadding(framePadding);
+        mEngine.update();
+
+        float centerX = mEngine.getCenterX();
+        float centerY = mEngine.getCenterY();
+        for (int i = 0; i < 4; i++) {
+            mQuad[i * 2] = centerX + mEngine.getCornerX(i);
+            mQuad[i * 2 + 1] = centerY + mEngine.getCornerY(i);
+        }
+        mBounds.set(centerX - mEngine.getHalfBoundsWidth(), centerY - mEngine.getHalfBoundsHeight(),
+                centerX + mEngine.getHalfBoundsWidth(), centerY + mEngine.getHalfBoundsHeight());
+
+        mEngine.getMatrixValues(mMatrixValues, mBitmap.getWidth(), mBitmap.getHeight(), centerX, centerY);
+        matrix.setValues(mMatrixValues);
+    }
+
+    /**
+     * 点(x, y)是否在旋转后的四边形内(包括边框间距)
+     */
+    public boolean contains(float x, float y) {
+        return mBounds.contains(x, y) && mEngine.contains(x, y);
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    void setBitmap(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    public float getCenterX() {
+        return mEngine.getCenterX();
+    }
+
+    public float getCenterY() {
+        return mEngine.getCenterY();
+    }
+
+    void setCenter(float x, float y) {
+        mEngine.setCenter(x, y);
+    }
+
+    public float getDegree() {
+        return mEngine.getDegree();
+    }
+
+    void setDegree(float degree) {
+        mEngine.setDegree(degree);
+    }
+
+    /**
+     * 当前的变换状态和图片来源的引用
+     */
+    public TransformState getTransformState() {
+        return TransformState.from(mEngine, mSource);
+    }
+
+    public float getScale() {
+        return mEngine.getScale();
+    }
+
+    void setScale(float scale) {
+        mEngine.setScale(scale);
+    }
+
+    public boolean isFlipped() {
+        return mEngine.isFlipped();
+    }
+
+    void setFlipped(boolean flipped) {
+        mEngine.setFlipped(flipped);
+    }
+
+    TransformEngine getEngine() {
+        return mEngine;
+    }
+
+    int getZOrder() {
+        return mZOrder;
+    }
+
+    void setZOrder(int zOrder) {
+        mZOrder = zOrder;
+    }
+
+    boolean hasCellRange() {
+        return mCellLeft <= mCellRight;
+    }
+
+    void setCellRange(int left, int top, int right, int bottom) {
+        mCellLeft = left;
+        mCellTop = top;
+        mCellRight = right;
+        mCellBottom = bottom;
+    }
+
+    void clearCellRange() {
+        setCellRange(0, 0, -1, -1);
+    }
+
+    Matrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * 四个角的坐标，依次为左上，右上，右下，左下的x, y。返回的是内部数组，不要修改
+     */
+    float[] getQuad() {
+        return mQuad;
+    }
+
+    /**
+     * 四个角的外接矩形。返回的是内部对象，不要修改
+     */
+    public RectF getBounds() {
+        return mBounds;
+    }
+}
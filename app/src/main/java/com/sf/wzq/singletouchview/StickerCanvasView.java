@@ -0,0 +1,1001 @@
+package com.sf.wzq.singletouchview;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在一个View中承载多个可平移、缩放、旋转的贴图。
+ * 贴图按添加顺序(z序)在同一次onDraw中绘制，只有选中的贴图绘制边框和控制图标，
+ * View本身的大小和位置不随贴图变化，不会触发layout。
+ */
+public class StickerCanvasView extends View {
+    /**
+     * 图标的个数：控制、删除、翻转，与SingleTouchView.HANDLE_*对应
+     */
+    private static final int HANDLE_COUNT = 3;
+    /**
+     * 所有贴图，列表末尾的贴图位于最上层
+     */
+    private final List<Sticker> mStickers = new ArrayList<Sticker>();
+    /**
+     * 当前选中的贴图
+     */
+    private Sticker mSelectedSticker;
+    /**
+     * 贴图外接矩形的网格索引，用于点击检测
+     */
+    private final StickerGrid mGrid = new StickerGrid();
+    /**
+     * 下一个移到最上层的贴图使用的z序
+     */
+    private int mNextZOrder;
+    /**
+     * 选中贴图上的各个图标，下标为SingleTouchView.HANDLE_*，删除、翻转图标为null时不显示
+     */
+    private final Drawable[] mHandleDrawables = new Drawable[HANDLE_COUNT];
+    /**
+     * 各个图标所在的位置(左上，右上，左下，右下）
+     */
+    private final int[] mHandleLocations = {SingleTouchView.DEFAULT_CONTROL_LOCATION,
+            SingleTouchView.DEFAULT_DELETE_LOCATION, SingleTouchView.DEFAULT_FLIP_LOCATION};
+    /**
+     * 所有图标中最大的宽和高
+     */
+    private int mDrawableWidth, mDrawableHeight;
+    /**
+     * 按下的删除或翻转图标
+     */
+    private int mPressedHandle;
+    /**
+     * 点击删除、翻转图标的回调
+     */
+    private OnHandleClickListener mOnHandleClickListener;
+    /**
+     * 选中贴图的外围框，只在选中的贴图、它的变换或边框设置改变后才重新生成
+     */
+    private final Path mPath = new Path();
+    /**
+     * mPath和控制图标的位置是否需要重新生成
+     */
+    private boolean mDecorationDirty = true;
+    /**
+     * 画外围框的画笔
+     */
+    private final Paint mPaint = new Paint();
+    /**
+     * 画贴图的画笔
+     */
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /**
+     * 画ALPHA_8贴图的画笔，颜色为着色的颜色，默认黑色
+     */
+    private final Paint mTintPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /**
+     * 需要重绘的区域，只重绘有变化的贴图占用的区域而不是整个画布
+     */
+    private final Rect mDirtyRect = new Rect();
+    /**
+     * 外边框与图片之间的间距
+     */
+    private int framePadding;
+    /**
+     * 外边框的颜色
+     */
+    private int frameColor = SingleTouchView.DEFAULT_FRAME_COLOR;
+    /**
+     * 外边框线条粗细
+     */
+    private int frameWidth;
+    /**
+     * 是否处于可以 平移、缩放、旋转 状态
+     */
+    private boolean isEditable = SingleTouchView.DEFAULT_EDITABLE;
+    /**
+     * 当前的状态
+     */
+    private int mStatus = SingleTouchView.STATUS_INIT;
+    private float mPreMoveX, mPreMoveY;
+    /**
+     * 旋转时吸附的角度间隔，0为不吸附
+     */
+    private float mSnapAngle;
+    /**
+     * 拖动时是否吸附到画布和其它贴图的边、中线并显示参考线
+     */
+    private boolean mGuidesEnabled;
+    private AlignmentGuides mGuides;
+    /**
+     * 这次拖动是否在使用参考线，以及手指拖出的原始中心点(不含吸附的偏移)
+     */
+    private boolean mGuidesActive;
+    private float mDragCenterX, mDragCenterY;
+    private final Paint mGuidePaint = new Paint();
+    /**
+     * 恢复状态时解析使用者自己定义的图片来源引用
+     */
+    private SourceResolver mSourceResolver;
+    /**
+     * 添加过贴图或者注册过的贴图集，恢复状态时从中查找贴图集中的贴图
+     */
+    private final List<StickerPack> mPacks = new ArrayList<StickerPack>();
+
+    /**
+     * 点击选中贴图上的删除、翻转图标的回调。回调时贴图已经删除或翻转
+     */
+    public interface OnHandleClickListener {
+        void onHandleClick(StickerCanvasView view, Sticker sticker, int handle);
+    }
+
+    /**
+     * 恢复状态时把addSticker(Bitmap, String)中使用者自己定义的引用重新变成Bitmap，在UI线程中调用
+     */
+    public interface SourceResolver {
+        /**
+         * @return 引用对应的Bitmap，无法解析时返回null，这个贴图不会被恢复
+         */
+        Bitmap resolveSource(String source);
+    }
+
+    public StickerCanvasView(Context context) {
+        this(context, null);
+    }
+
+    public StickerCanvasView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public StickerCanvasView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        obtainStyledAttributes(attrs);
+        init();
+    }
+
+    /**
+     * 获取自定义属性
+     */
+    private void obtainStyledAttributes(AttributeSet attrs) {
+        framePadding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                SingleTouchView.DEFAULT_FRAME_PADDING, getResources().getDisplayMetrics());
+        frameWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                SingleTouchView.DEFAULT_FRAME_WIDTH, getResources().getDisplayMetrics());
+
+        TypedArray mTypedArray = getContext().obtainStyledAttributes(attrs, R.styleable.StickerCanvasView);
+        framePadding = mTypedArray.getDimensionPixelSize(R.styleable.StickerCanvasView_framePadding, framePadding);
+        frameWidth = mTypedArray.getDimensionPixelSize(R.styleable.StickerCanvasView_frameWidth, frameWidth);
+        frameColor = mTypedArray.getColor(R.styleable.StickerCanvasView_frameColor, SingleTouchView.DEFAULT_FRAME_COLOR);
+        mHandleDrawables[SingleTouchView.HANDLE_ROTATE_ZOOM] = mTypedArray.getDrawable(R.styleable.StickerCanvasView_controlDrawable);
+        mHandleLocations[SingleTouchView.HANDLE_ROTATE_ZOOM] = mTypedArray.getInt(R.styleable.StickerCanvasView_controlLocation, SingleTouchView.DEFAULT_CONTROL_LOCATION);
+        mHandleDrawables[SingleTouchView.HANDLE_DELETE] = mTypedArray.getDrawable(R.styleable.StickerCanvasView_deleteDrawable);
+        mHandleLocations[SingleTouchView.HANDLE_DELETE] = mTypedArray.getInt(R.styleable.StickerCanvasView_deleteLocation, SingleTouchView.DEFAULT_DELETE_LOCATION);
+        mHandleDrawables[SingleTouchView.HANDLE_FLIP] = mTypedArray.getDrawable(R.styleable.StickerCanvasView_flipDrawable);
+        mHandleLocations[SingleTouchView.HANDLE_FLIP] = mTypedArray.getInt(R.styleable.StickerCanvasView_flipLocation, SingleTouchView.DEFAULT_FLIP_LOCATION);
+        isEditable = mTypedArray.getBoolean(R.styleable.StickerCanvasView_editable, SingleTouchView.DEFAULT_EDITABLE);
+        mSnapAngle = mTypedArray.getFloat(R.styleable.StickerCanvasView_snapAngle, 0);
+        mGuidesEnabled = mTypedArray.getBoolean(R.styleable.StickerCanvasView_alignmentGuides, false);
+        mTintPaint.setColor(mTypedArray.getColor(R.styleable.StickerCanvasView_tint, Color.BLACK));
+        mTypedArray.recycle();
+    }
+
+    private void init() {
+        mPaint.setAntiAlias(true);
+        mPaint.setColor(frameColor);
+        mPaint.setStrokeWidth(frameWidth);
+        mPaint.setStyle(Paint.Style.STROKE);
+
+        mGuidePaint.setColor(SingleTouchView.DEFAULT_GUIDE_COLOR);
+        mGuidePaint.setStrokeWidth(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1, getResources().getDisplayMetrics()));
+        mGuides = new AlignmentGuides(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                SingleTouchView.DEFAULT_GUIDE_THRESHOLD, getResources().getDisplayMetrics()));
+
+        if (mHandleDrawables[SingleTouchView.HANDLE_ROTATE_ZOOM] == null) {
+            mHandleDrawables[SingleTouchView.HANDLE_ROTATE_ZOOM] = getContext().getResources().getDrawable(R.drawable.icon_rotate_zoom);
+        }
+        updateHandleSize();
+    }
+
+    /**
+     * 取所有图标中最大的宽和高
+     */
+    private void updateHandleSize() {
+        mDrawableWidth = 0;
+        mDrawableHeight = 0;
+        for (Drawable handle : mHandleDrawables) {
+            if (handle == null) continue;
+            mDrawableWidth = Math.max(mDrawableWidth, handle.getIntrinsicWidth());
+            mDrawableHeight = Math.max(mDrawableHeight, handle.getIntrinsicHeight());
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        // 按z序一次画完所有贴图，外接矩形与重绘区域不相交的贴图跳过
+        for (int i = 0, size = mStickers.size(); i < size; i++) {
+            Sticker sticker = mStickers.get(i);
+            if (canvas.quickReject(sticker.getBounds(), Canvas.EdgeType.AA)) continue;
+            Bitmap bitmap = sticker.getBitmap();
+            canvas.drawBitmap(bitmap, sticker.getMatrix(), bitmap.getConfig() == Bitmap.Config.ALPHA_8 ? mTintPaint : mBitmapPaint);
+        }
+
+        //只给选中的贴图画边框和控制图标
+        if (isEditable && mSelectedSticker != null) {
+            if (mDecorationDirty) {
+                updateDecoration();
+            }
+            // 1,画边框
+            canvas.drawPath(mPath, mPaint);
+            // 2,画控制、删除、翻转图标
+            for (Drawable handle : mHandleDrawables) {
+                if (handle != null) handle.draw(canvas);
+            }
+        }
+
+        // 拖动中吸附到的参考线
+        if (mGuidesActive) {
+            mGuides.draw(canvas, mGuidePaint, getWidth(), getHeight());
+        }
+    }
+
+    /**
+     * 根据选中贴图的四个顶点重新生成边框的Path和各个图标的位置
+     */
+    private void updateDecoration() {
+        float[] quad = mSelectedSticker.getQuad();
+        mPath.reset();
+        mPath.moveTo(quad[0], quad[1]);
+        mPath.lineTo(quad[2], quad[3]);
+        mPath.lineTo(quad[4], quad[5]);
+        mPath.lineTo(quad[6], quad[7]);
+        mPath.close();
+        for (int i = 0; i < HANDLE_COUNT; i++) {
+            Drawable handle = mHandleDrawables[i];
+            if (handle == null) continue;
+            int x = (int) quad[mHandleLocations[i] * 2];
+            int y = (int) quad[mHandleLocations[i] * 2 + 1];
+            int halfWidth = handle.getIntrinsicWidth() / 2;
+            int halfHeight = handle.getIntrinsicHeight() / 2;
+            handle.setBounds(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight);
+        }
+        mDecorationDirty = false;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isEditable) return super.onTouchEvent(event);
+        float x = event.getX();
+        float y = event.getY();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mPreMoveX = x;
+                mPreMoveY = y;
+                mStatus = judgeStatus(x, y);
+                if (mStatus == SingleTouchView.STATUS_ROTATE_ZOOM) {
+                    mSelectedSticker.getEngine().setAngleSnap(mSnapAngle, TransformEngine.DEFAULT_SNAP_TOLERANCE);
+                    mSelectedSticker.getEngine().startRotateZoom(x, y);
+                } else if (mStatus == SingleTouchView.STATUS_DRAG) {
+                    startGuides();
+                }
+                // 没有点中任何贴图时不消费后续事件
+                return mStatus != SingleTouchView.STATUS_INIT;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (mStatus == SingleTouchView.STATUS_HANDLE) {
+                    mStatus = SingleTouchView.STATUS_INIT;
+                    // 抬起时还在同一个图标上才算点击
+                    if (event.getActionMasked() == MotionEvent.ACTION_UP && handleAt(x, y) == mPressedHandle) {
+                        performHandleClick(mPressedHandle);
+                    }
+                    break;
+                }
+                mStatus = SingleTouchView.STATUS_INIT;
+                stopGuides();
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mSelectedSticker == null) break;
+                Sticker sticker = mSelectedSticker;
+                if (mStatus == SingleTouchView.STATUS_DRAG && mGuidesActive) {
+                    mDragCenterX += x - mPreMoveX;
+                    mDragCenterY += y - mPreMoveY;
+                    snapToGuides(sticker);
+                    sticker.setCenter(mDragCenterX + mGuides.getSnapDx(), mDragCenterY + mGuides.getSnapDy());
+                    updateSticker(sticker);
+                } else if (mStatus == SingleTouchView.STATUS_DRAG) {
+                    sticker.setCenter(sticker.getCenterX() + x - mPreMoveX, sticker.getCenterY() + y - mPreMoveY);
+                    updateSticker(sticker);
+                } else if (mStatus == SingleTouchView.STATUS_ROTATE_ZOOM) {
+                    sticker.getEngine().rotateZoom(x, y);
+                    updateSticker(sticker);
+                }
+                mPreMoveX = x;
+                mPreMoveY = y;
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * 拖动开始时把画布和其它贴图的外接矩形放进参考线的边表
+     */
+    private void startGuides() {
+        if (!mGuidesEnabled) return;
+        mGuides.clear();
+        mGuides.add(0, 0, getWidth(), getHeight());
+        for (int i = 0, size = mStickers.size(); i < size; i++) {
+            Sticker sticker = mStickers.get(i);
+            if (sticker == mSelectedSticker) continue;
+            RectF bounds = sticker.getBounds();
+            mGuides.add(bounds.left, bounds.top, bounds.right, bounds.bottom);
+        }
+        mGuides.sort();
+        mDragCenterX = mSelectedSticker.getCenterX();
+        mDragCenterY = mSelectedSticker.getCenterY();
+        mGuidesActive = true;
+    }
+
+    /**
+     * 计算拖动中的贴图吸附到的参考线，参考线有变化时只重绘前后两组参考线占用的区域
+     */
+    private void snapToGuides(Sticker sticker) {
+        int stroke = getGuideStroke();
+        mDirtyRect.setEmpty();
+        mGuides.union(mDirtyRect, getWidth(), getHeight(), stroke);
+        TransformEngine engine = sticker.getEngine();
+        if (mGuides.snap(mDragCenterX, mDragCenterY, engine.getHalfBoundsWidth(), engine.getHalfBoundsHeight())) {
+            mGuides.union(mDirtyRect, getWidth(), getHeight(), stroke);
+            invalidate(mDirtyRect);
+        }
+    }
+
+    /**
+     * 拖动结束，移除参考线
+     */
+    private void stopGuides() {
+        if (!mGuidesActive) return;
+        mGuidesActive = false;
+        mDirtyRect.setEmpty();
+        mGuides.union(mDirtyRect, getWidth(), getHeight(), getGuideStroke());
+        mGuides.clear();
+        invalidate(mDirtyRect);
+    }
+
+    /**
+     * 参考线线宽的一半，多留1像素给抗锯齿
+     */
+    private int getGuideStroke() {
+        return (int) Math.ceil(mGuidePaint.getStrokeWidth() / 2) + 1;
+    }
+
+    private static float length(float x, float y) {
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * 点(x, y)所在的选中贴图的图标，后画的图标优先，没有点中时返回-1
+     */
+    private int handleAt(float x, float y) {
+        if (mSelectedSticker == null) return -1;
+        float[] quad = mSelectedSticker.getQuad();
+        for (int i = HANDLE_COUNT - 1; i >= 0; i--) {
+            Drawable handle = mHandleDrawables[i];
+            if (handle == null) continue;
+            int location = mHandleLocations[i];
+            float distance = length(x - quad[location * 2], y - quad[location * 2 + 1]);
+            //如果两者之间的距离小于 图标的宽度，高度的最小值的一半，则认为点中了图标
+            if (distance < Math.min(handle.getIntrinsicWidth(), handle.getIntrinsicHeight()) / 2) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 点击了选中贴图的删除或翻转图标
+     */
+    private void performHandleClick(int handle) {
+        Sticker sticker = mSelectedSticker;
+        if (sticker == null) return;
+        if (handle == SingleTouchView.HANDLE_DELETE) {
+            removeSticker(sticker);
+        } else if (handle == SingleTouchView.HANDLE_FLIP) {
+            setStickerFlipped(sticker, !sticker.isFlipped());
+        }
+        if (mOnHandleClickListener != null) {
+            mOnHandleClickListener.onHandleClick(this, sticker, handle);
+        }
+    }
+
+    /**
+     * 根据点击的位置判断是否点中选中贴图的图标，或者点中了哪个贴图
+     */
+    private int judgeStatus(float x, float y) {
+        int handle = handleAt(x, y);
+        if (handle == SingleTouchView.HANDLE_ROTATE_ZOOM) {
+            return SingleTouchView.STATUS_ROTATE_ZOOM;
+        } else if (handle != -1) {
+            mPressedHandle = handle;
+            return SingleTouchView.STATUS_HANDLE;
+        }
+
+        Sticker hit = findStickerAt(x, y);
+        if (hit != mSelectedSticker) {
+            invalidateSelection(hit);
+        }
+        return hit == null ? SingleTouchView.STATUS_INIT : SingleTouchView.STATUS_DRAG;
+    }
+
+    /**
+     * 查找包含点(x, y)的最上层贴图，先通过网格索引找出候选，再按旋转后的四边形精确判断
+     */
+    public Sticker findStickerAt(float x, float y) {
+        return mGrid.findTopmostAt(x, y);
+    }
+
+    /**
+     * 重新计算贴图的变换，更新网格索引并刷新
+     */
+    private void updateSticker(Sticker sticker) {
+        mDirtyRect.setEmpty();
+        unionStickerArea(sticker);
+        sticker.update(framePadding);
+        mGrid.update(sticker);
+        unionStickerArea(sticker);
+        if (sticker == mSelectedSticker) mDecorationDirty = true;
+        invalidate(mDirtyRect);
+    }
+
+    /**
+     * 将贴图的外接矩形并入mDirtyRect，四周留出边框线宽和控制图标的大小，
+     * 这样选中状态、边框、控制图标的变化也在这个区域内
+     */
+    private void unionStickerArea(Sticker sticker) {
+        RectF bounds = sticker.getBounds();
+        if (bounds.isEmpty()) return;
+        int outset = Math.max(frameWidth / 2, Math.max(mDrawableWidth, mDrawableHeight) / 2) + 1;
+        mDirtyRect.union((int) Math.floor(bounds.left) - outset, (int) Math.floor(bounds.top) - outset,
+                (int) Math.ceil(bounds.right) + outset, (int) Math.ceil(bounds.bottom) + outset);
+    }
+
+    /**
+     * 只重绘一个贴图占用的区域
+     */
+    private void invalidateSticker(Sticker sticker) {
+        if (sticker == null) return;
+        mDirtyRect.setEmpty();
+        unionStickerArea(sticker);
+        mDecorationDirty = true;
+        invalidate(mDirtyRect);
+    }
+
+    /**
+     * 修改选中的贴图，只重绘前后两个贴图占用的区域
+     */
+    private void invalidateSelection(Sticker selected) {
+        mDirtyRect.setEmpty();
+        if (mSelectedSticker != null) unionStickerArea(mSelectedSticker);
+        mSelectedSticker = selected;
+        mDecorationDirty = true;
+        if (selected != null) unionStickerArea(selected);
+        invalidate(mDirtyRect);
+    }
+
+    /**
+     * 在View的中心添加一个贴图，新贴图位于最上层并被选中。
+     * 这样添加的贴图没有图片来源的引用，保存状态时会被跳过，需要恢复时使用addSticker(Bitmap, String)
+     */
+    public Sticker addSticker(Bitmap bitmap) {
+        return addSticker(bitmap, getWidth() / 2f, getHeight() / 2f);
+    }
+
+    /**
+     * 在View的中心添加一个贴图，source为使用者自己定义的图片来源的引用(例如文件的Uri)，
+     * 恢复状态时交给SourceResolver重新得到Bitmap
+     */
+    public Sticker addSticker(Bitmap bitmap, String source) {
+        Sticker sticker = addSticker(bitmap);
+        if (sticker != null) {
+            sticker.mSource = source;
+        }
+        return sticker;
+    }
+
+    /**
+     * 在(centerX, centerY)处添加一个贴图，新贴图位于最上层并被选中
+     */
+    public Sticker addSticker(Bitmap bitmap, float centerX, float centerY) {
+        if (bitmap == null) return null;
+        Sticker sticker = new Sticker(bitmap, centerX, centerY);
+        sticker.setZOrder(mNextZOrder++);
+        mStickers.add(sticker);
+        // 原来选中的贴图不再画边框
+        invalidateSelection(sticker);
+        updateSticker(sticker);
+        return sticker;
+    }
+
+    /**
+     * 根据id添加一个贴图，同一资源的多个贴图共享BitmapCache中的同一个Bitmap
+     */
+    public Sticker addStickerResource(int resId) {
+        Bitmap bitmap = acquireResource(resId);
+        if (bitmap == null) return null;
+        Sticker sticker = addSticker(bitmap);
+        sticker.mCacheKey = resourceKey(resId);
+        sticker.mSource = TransformState.resourceSource(getResources(), resId);
+        return sticker;
+    }
+
+    /**
+     * 添加贴图集中的第index个贴图，像素直接从映射的文件中复制，同一贴图的多个实例共享BitmapCache中的同一个Bitmap
+     */
+    public Sticker addStickerFromPack(StickerPack pack, int index) {
+        registerStickerPack(pack);
+        Sticker sticker = addSticker(pack.acquire(index));
+        sticker.mCacheKey = pack.cacheKey(index);
+        sticker.mSource = pack.sourceOf(index);
+        return sticker;
+    }
+
+    /**
+     * 注册贴图集，恢复状态时其中的贴图从这个贴图集中取得。addStickerFromPack会自动注册，
+     * 进程被杀后重新创建的View需要在恢复状态(onRestoreInstanceState或setStickerStates)之前注册
+     */
+    public void registerStickerPack(StickerPack pack) {
+        for (int i = 0, size = mPacks.size(); i < size; i++) {
+            if (mPacks.get(i).getSource().equals(pack.getSource())) {
+                mPacks.set(i, pack);
+                return;
+            }
+        }
+        mPacks.add(pack);
+    }
+
+    /**
+     * 资源按屏幕密度缩放解码后在BitmapCache中的key
+     */
+    private String resourceKey(int resId) {
+        return BitmapCache.scaledResourceKey(resId, getResources().getDisplayMetrics().densityDpi);
+    }
+
+    /**
+     * 从BitmapCache中获取资源的Bitmap，没有时按屏幕密度缩放解码并放入，使用完后需要释放
+     */
+    private Bitmap acquireResource(int resId) {
+        BitmapCache cache = BitmapCache.getInstance();
+        String key = resourceKey(resId);
+        Bitmap bitmap = cache.acquire(key);
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeResource(getResources(), resId);
+            if (bitmap == null) return null;
+            bitmap = cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 所有贴图的变换状态，按z序从下到上，可以用TransformState.toBytes或toJson保存
+     */
+    public List<TransformState> getStickerStates() {
+        List<TransformState> states = new ArrayList<TransformState>(mStickers.size());
+        for (int i = 0, size = mStickers.size(); i < size; i++) {
+            states.add(mStickers.get(i).getTransformState());
+        }
+        return states;
+    }
+
+    /**
+     * 用保存的状态替换所有贴图，所有贴图添加完后只刷新一次。
+     * 资源按名字查找，贴图集中的贴图从注册过的贴图集中取得，其他引用交给SourceResolver。没有引用(通过addSticker(Bitmap)添加)、
+     * 资源已经不存在或者SourceResolver无法解析的贴图不会被恢复
+     *
+     * @return 恢复的贴图个数
+     */
+    public int setStickerStates(List<TransformState> states) {
+        clearStickers();
+        for (int i = 0, size = states.size(); i < size; i++) {
+            TransformState state = states.get(i);
+            String source = state.getSource();
+            if (source == null) continue;
+            String cacheKey = null;
+            Bitmap bitmap;
+            int resId = TransformState.getResourceId(getResources(), source);
+            StickerPack pack = null;
+            int packIndex = -1;
+            for (int j = 0, packs = mPacks.size(); resId == 0 && j < packs && packIndex < 0; j++) {
+                pack = mPacks.get(j);
+                packIndex = pack.indexOfSource(source);
+            }
+            if (resId != 0) {
+                bitmap = acquireResource(resId);
+                cacheKey = resourceKey(resId);
+            } else if (packIndex >= 0) {
+                bitmap = pack.acquire(packIndex);
+                cacheKey = pack.cacheKey(packIndex);
+            } else {
+                bitmap = mSourceResolver == null ? null : mSourceResolver.resolveSource(source);
+            }
+            if (bitmap == null) continue;
+            Sticker sticker = new Sticker(bitmap, state.getCenterX(), state.getCenterY());
+            state.applyTo(sticker.getEngine());
+            sticker.mCacheKey = cacheKey;
+            sticker.mSource = source;
+            sticker.setZOrder(mNextZOrder++);
+            sticker.update(framePadding);
+            mStickers.add(sticker);
+            mGrid.insert(sticker);
+        }
+        invalidate();
+        return mStickers.size();
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        state.stickers = TransformState.toBytes(getStickerStates());
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (savedState.stickers != null) {
+            setStickerStates(TransformState.fromBytes(savedState.stickers));
+        }
+    }
+
+    /**
+     * 保存在onSaveInstanceState中的状态，所有贴图使用TransformState的二进制格式
+     */
+    static class SavedState extends BaseSavedState {
+        byte[] stickers;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel source) {
+            super(source);
+            stickers = source.createByteArray();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeByteArray(stickers);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel source) {
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    /**
+     * 释放贴图对BitmapCache的引用
+     */
+    private static void releaseBitmap(Sticker sticker) {
+        if (sticker.mCacheKey != null) {
+            BitmapCache.getInstance().release(sticker.mCacheKey);
+            sticker.mCacheKey = null;
+        }
+    }
+
+    public void removeSticker(Sticker sticker) {
+        if (mStickers.remove(sticker)) {
+            mGrid.remove(sticker);
+            releaseBitmap(sticker);
+            if (mSelectedSticker == sticker) {
+                mSelectedSticker = null;
+            }
+            invalidateSticker(sticker);
+        }
+    }
+
+    public void clearStickers() {
+        for (int i = 0, size = mStickers.size(); i < size; i++) {
+            releaseBitmap(mStickers.get(i));
+        }
+        mStickers.clear();
+        mGrid.clear();
+        mSelectedSticker = null;
+        invalidate();
+    }
+
+    /**
+     * 将贴图移到最上层
+     */
+    public void bringToFront(Sticker sticker) {
+        if (mStickers.remove(sticker)) {
+            sticker.setZOrder(mNextZOrder++);
+            mStickers.add(sticker);
+            invalidateSticker(sticker);
+        }
+    }
+
+    /**
+     * 创建按outputWidth * outputHeight导出所有贴图的ExportRenderer，背景需要调用者另外设置。还没有布局时返回null
+     */
+    public ExportRenderer newExportRenderer(int outputWidth, int outputHeight) {
+        if (getWidth() == 0 || getHeight() == 0) return null;
+        ExportRenderer renderer = new ExportRenderer(getWidth(), getHeight(), outputWidth, outputHeight);
+        for (int i = 0, size = mStickers.size(); i < size; i++) {
+            Sticker sticker = mStickers.get(i);
+            renderer.addLayer(sticker.getBitmap(), sticker.getEngine(), mTintPaint.getColor());
+        }
+        return renderer;
+    }
+
+    public int getStickerCount() {
+        return mStickers.size();
+    }
+
+    public Sticker getStickerAt(int index) {
+        return mStickers.get(index);
+    }
+
+    public Sticker getSelectedSticker() {
+        return mSelectedSticker;
+    }
+
+    /**
+     * 设置选中的贴图，传入null取消选中
+     */
+    public void setSelectedSticker(Sticker sticker) {
+        if (sticker != null && !mStickers.contains(sticker)) return;
+        if (mSelectedSticker != sticker) {
+            invalidateSelection(sticker);
+        }
+    }
+
+    /**
+     * 设置贴图的中心点
+     */
+    public void setStickerCenter(Sticker sticker, float x, float y) {
+        sticker.setCenter(x, y);
+        updateSticker(sticker);
+    }
+
+    /**
+     * 设置贴图的旋转角度
+     */
+    public void setStickerDegree(Sticker sticker, float degree) {
+        sticker.setDegree(degree);
+        updateSticker(sticker);
+    }
+
+    /**
+     * 设置贴图的缩放比例
+     */
+    public void setStickerScale(Sticker sticker, float scale) {
+        sticker.setScale(scale);
+        updateSticker(sticker);
+    }
+
+    /**
+     * 设置贴图是否水平翻转
+     */
+    public void setStickerFlipped(Sticker sticker, boolean flipped) {
+        sticker.setFlipped(flipped);
+        updateSticker(sticker);
+    }
+
+    public boolean isEditable() {
+        return isEditable;
+    }
+
+    /**
+     * 设置是否处于可缩放，平移，旋转状态
+     */
+    public void setEditable(boolean isEditable) {
+        this.isEditable = isEditable;
+        invalidateSticker(mSelectedSticker);
+    }
+
+    public int getFrameColor() {
+        return frameColor;
+    }
+
+    public void setFrameColor(int frameColor) {
+        if (this.frameColor != frameColor) {
+            this.frameColor = frameColor;
+            mPaint.setColor(frameColor);
+            invalidateSticker(mSelectedSticker);
+        }
+    }
+
+    public int getFramePadding() {
+        return framePadding;
+    }
+
+    public void setFramePadding(int framePadding) {
+        if (this.framePadding != framePadding) {
+            this.framePadding = framePadding;
+            for (int i = 0, size = mStickers.size(); i < size; i++) {
+                Sticker sticker = mStickers.get(i);
+                sticker.update(framePadding);
+                mGrid.update(sticker);
+            }
+            mDecorationDirty = true;
+            invalidate();
+        }
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public void setFrameWidth(int frameWidth) {
+        if (this.frameWidth != frameWidth) {
+            // 线宽变化前后的区域都要重绘
+            invalidateSticker(mSelectedSticker);
+            this.frameWidth = frameWidth;
+            mPaint.setStrokeWidth(frameWidth);
+            invalidateSticker(mSelectedSticker);
+        }
+    }
+
+    public float getSnapAngle() {
+        return mSnapAngle;
+    }
+
+    /**
+     * 设置旋转时吸附的角度间隔，例如90时在0、90、180、270度附近吸附，0为不吸附
+     */
+    public void setSnapAngle(float snapAngle) {
+        this.mSnapAngle = snapAngle;
+    }
+
+    public boolean isAlignmentGuidesEnabled() {
+        return mGuidesEnabled;
+    }
+
+    /**
+     * 设置拖动时是否吸附到画布和其它贴图的左、中、右以及上、中、下，并显示参考线
+     */
+    public void setAlignmentGuidesEnabled(boolean enabled) {
+        this.mGuidesEnabled = enabled;
+        if (!enabled) {
+            stopGuides();
+        }
+    }
+
+    /**
+     * 拖动时吸附到参考线的距离，单位px
+     */
+    public float getAlignmentGuideThreshold() {
+        return mGuides.getThreshold();
+    }
+
+    /**
+     * 设置拖动时吸附到参考线的距离，单位px，默认为SingleTouchView.DEFAULT_GUIDE_THRESHOLD dp
+     */
+    public void setAlignmentGuideThreshold(float threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("threshold must not be negative");
+        mGuides.setThreshold(threshold);
+    }
+
+    /**
+     * 设置ALPHA_8贴图绘制时的颜色，其它贴图不受影响
+     */
+    public void setTintColor(int color) {
+        mTintPaint.setColor(color);
+        invalidate();
+    }
+
+    /**
+     * 清除着色，ALPHA_8贴图恢复为黑色
+     */
+    public void clearTint() {
+        setTintColor(Color.BLACK);
+    }
+
+    public int getTintColor() {
+        return mTintPaint.getColor();
+    }
+
+    public int getControlLocation() {
+        return getHandleLocation(SingleTouchView.HANDLE_ROTATE_ZOOM);
+    }
+
+    /**
+     * 设置控制图标的位置, 设置的值只能选择LEFT_TOP ，RIGHT_TOP， RIGHT_BOTTOM，LEFT_BOTTOM
+     */
+    public void setControlLocation(int location) {
+        setHandleLocation(SingleTouchView.HANDLE_ROTATE_ZOOM, location);
+    }
+
+    public Drawable getControlDrawable() {
+        return getHandleDrawable(SingleTouchView.HANDLE_ROTATE_ZOOM);
+    }
+
+    /**
+     * 设置控制图标
+     */
+    public void setControlDrawable(Drawable drawable) {
+        if (drawable == null) return;
+        setHandleDrawable(SingleTouchView.HANDLE_ROTATE_ZOOM, drawable);
+    }
+
+    public Drawable getHandleDrawable(int handle) {
+        return mHandleDrawables[handle];
+    }
+
+    /**
+     * 设置SingleTouchView.HANDLE_*对应的图标，删除、翻转图标传入null时不显示
+     */
+    public void setHandleDrawable(int handle, Drawable drawable) {
+        if (handle == SingleTouchView.HANDLE_ROTATE_ZOOM && drawable == null) return;
+        if (mHandleDrawables[handle] == drawable) return;
+        // 原来的图标所在的区域也要重绘
+        invalidateSticker(mSelectedSticker);
+        mHandleDrawables[handle] = drawable;
+        updateHandleSize();
+        invalidateSticker(mSelectedSticker);
+    }
+
+    public int getHandleLocation(int handle) {
+        return mHandleLocations[handle];
+    }
+
+    /**
+     * 设置SingleTouchView.HANDLE_*对应的图标的位置, 设置的值只能选择LEFT_TOP ，RIGHT_TOP， RIGHT_BOTTOM，LEFT_BOTTOM
+     */
+    public void setHandleLocation(int handle, int location) {
+        if (mHandleLocations[handle] != location) {
+            mHandleLocations[handle] = location;
+            invalidateSticker(mSelectedSticker);
+        }
+    }
+
+    public OnHandleClickListener getOnHandleClickListener() {
+        return mOnHandleClickListener;
+    }
+
+    /**
+     * 设置点击删除、翻转图标的回调
+     */
+    public void setOnHandleClickListener(OnHandleClickListener listener) {
+        this.mOnHandleClickListener = listener;
+    }
+
+    public SourceResolver getSourceResolver() {
+        return mSourceResolver;
+    }
+
+    /**
+     * 设置解析自定义图片来源引用的回调，需要在恢复状态(onRestoreInstanceState或setStickerStates)之前设置
+     */
+    public void setSourceResolver(SourceResolver resolver) {
+        this.mSourceResolver = resolver;
+    }
+}
@@ -0,0 +1,154 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * 贴图外接矩形的均匀网格索引，用于在贴图很多时快速找出某个点下面的候选贴图。
+ * 每个贴图登记在其外接矩形覆盖的所有格子中，贴图移动时只更新变化了的格子。
+ */
+class StickerGrid {
+    /**
+     * 默认格子边长，单位px
+     */
+    static final int DEFAULT_CELL_SIZE = 128;
+
+    private final int mCellSize;
+    /**
+     * 格子坐标 -> 该格子中的贴图
+     */
+    private final SparseArray<ArrayList<Sticker>> mCells = new SparseArray<ArrayList<Sticker>>();
+
+    StickerGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    StickerGrid(int cellSize) {
+        mCellSize = cellSize;
+    }
+
+    /**
+     * 将贴图按当前外接矩形加入索引
+     */
+    void insert(Sticker sticker) {
+        RectF bounds = sticker.getBounds();
+        sticker.setCellRange(cellOf(bounds.left), cellOf(bounds.top), cellOf(bounds.right), cellOf(bounds.bottom));
+        addToCells(sticker, sticker.mCellLeft, sticker.mCellTop, sticker.mCellRight, sticker.mCellBottom);
+    }
+
+    /**
+     * 将贴图从索引中移除
+     */
+    void remove(Sticker sticker) {
+        if (!sticker.hasCellRange()) return;
+        removeFromCells(sticker, sticker.mCellLeft, sticker.mCellTop, sticker.mCellRight, sticker.mCellBottom);
+        sticker.clearCellRange();
+    }
+
+    /**
+     * 贴图的外接矩形变化后调用，覆盖的格子范围没变时什么都不做
+     */
+    void update(Sticker sticker) {
+        if (!sticker.hasCellRange()) {
+            insert(sticker);
+            return;
+        }
+        RectF bounds = sticker.getBounds();
+        int left = cellOf(bounds.left);
+        int top = cellOf(bounds.top);
+        int right = cellOf(bounds.right);
+        int bottom = cellOf(bounds.bottom);
+        if (left == sticker.mCellLeft && top == sticker.mCellTop
+                && right == sticker.mCellRight && bottom == sticker.mCellBottom) {
+            return;
+        }
+        // 只处理新旧范围不重叠的格子
+        for (int cy = sticker.mCellTop; cy <= sticker.mCellBottom; cy++) {
+            for (int cx = sticker.mCellLeft; cx <= sticker.mCellRight; cx++) {
+                if (cx < left || cx > right || cy < top || cy > bottom) {
+                    removeFromCell(sticker, cx, cy);
+                }
+            }
+        }
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                if (cx < sticker.mCellLeft || cx > sticker.mCellRight || cy < sticker.mCellTop || cy > sticker.mCellBottom) {
+                    addToCell(sticker, cx, cy);
+                }
+            }
+        }
+        sticker.setCellRange(left, top, right, bottom);
+    }
+
+    void clear() {
+        for (int i = 0, size = mCells.size(); i < size; i++) {
+            ArrayList<Sticker> cell = mCells.valueAt(i);
+            for (int j = 0, count = cell.size(); j < count; j++) {
+                cell.get(j).clearCellRange();
+            }
+        }
+        mCells.clear();
+    }
+
+    /**
+     * 查找包含点(x, y)的z序最高的贴图，按旋转后的四边形精确判断
+     */
+    Sticker findTopmostAt(float x, float y) {
+        ArrayList<Sticker> cell = mCells.get(key(cellOf(x), cellOf(y)));
+        if (cell == null) return null;
+        Sticker result = null;
+        for (int i = 0, size = cell.size(); i < size; i++) {
+            Sticker sticker = cell.get(i);
+            if ((result == null || sticker.getZOrder() > result.getZOrder()) && sticker.contains(x, y)) {
+                result = sticker;
+            }
+        }
+        return result;
+    }
+
+    private int cellOf(float coordinate) {
+        return (int) Math.floor(coordinate / mCellSize);
+    }
+
+    /**
+     * 格子坐标打包成int，x、y各占16位，支持正负坐标
+     */
+    private static int key(int cx, int cy) {
+        return (cy << 16) | (cx & 0xffff);
+    }
+
+    private void addToCells(Sticker sticker, int left, int top, int right, int bottom) {
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                addToCell(sticker, cx, cy);
+            }
+        }
+    }
+
+    private void removeFromCells(Sticker sticker, int left, int top, int right, int bottom) {
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                removeFromCell(sticker, cx, cy);
+            }
+        }
+    }
+
+    private void addToCell(Sticker sticker, int cx, int cy) {
+        int key = key(cx, cy);
+        ArrayList<Sticker> cell = mCells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Sticker>(4);
+            mCells.put(key, cell);
+        }
+        cell.add(sticker);
+    }
+
+    private void removeFromCell(Sticker sticker, int cx, int cy) {
+        ArrayList<Sticker> cell = mCells.get(key(cx, cy));
+        if (cell != null) {
+            cell.remove(sticker);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.sf.wzq.singletouchview;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * 打包在一个文件中的贴图集，由构建时的StickerPacker(packer模块)生成。
+ * 文件通过FileChannel.map映射到内存，打开时只读索引，像素是已经解码好的Bitmap内存格式，
+ * 使用某个贴图时直接从映射的内存复制到Bitmap中，不需要再解码图片，打开几百个贴图的选择器也不用逐个解码资源。
+ * <p>
+ * 文件格式(头部和索引为大端)：int MAGIC，byte VERSION，int 个数，之后每个贴图的索引依次为
+ * short 名字的UTF-8字节数，名字，int 宽，int 高，byte 格式(CONFIG_*)，int 像素数据的偏移，int 像素数据的字节数。
+ * 像素数据按4字节对齐，格式与Bitmap.copyPixelsFromBuffer要求的一致：
+ * ARGB_8888为预乘alpha的R、G、B、A字节，RGB_565为小端的16位 r << 11 | g << 5 | b
+ * <p>
+ * 放在assets中的贴图集用open(AssetManager, String)打开，映射的是APK中这个文件所在的区间，
+ * 所以打包时不能压缩，app的build.gradle中需要 aaptOptions { noCompress "pack" }
+ */
+public class StickerPack {
+    /**
+     * 文件格式的标记 "SPK1"
+     */
+    public static final int MAGIC = 0x53504B31;
+    public static final byte VERSION = 1;
+    /**
+     * 像素格式
+     */
+    public static final byte CONFIG_ARGB_8888 = 0;
+    public static final byte CONFIG_RGB_565 = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 文件路径或asset名字，用来区分BitmapCache中不同贴图集的key
+     */
+    private final String mSource;
+    private final MappedByteBuffer mBuffer;
+    private final String[] mNames;
+    private final int[] mWidths, mHeights;
+    private final byte[] mConfigs;
+    private final int[] mOffsets, mLengths;
+    private final HashMap<String, Integer> mIndex;
+
+    private StickerPack(String source, MappedByteBuffer buffer, int count) {
+        mSource = source;
+        mBuffer = buffer;
+        mNames = new String[count];
+        mWidths = new int[count];
+        mHeights = new int[count];
+        mConfigs = new byte[count];
+        mOffsets = new int[count];
+        mLengths = new int[count];
+        mIndex = new HashMap<String, Integer>(count * 2);
+    }
+
+    /**
+     * 映射并读取贴图集的索引，格式不对时抛出IOException
+     */
+    public static StickerPack open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // 映射在文件关闭后仍然有效，直到被回收
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return readIndex(file.getPath(), buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 映射assets中的贴图集，文件在APK中被压缩时openFd会抛出FileNotFoundException
+     */
+    public static StickerPack open(AssetManager assets, String fileName) throws IOException {
+        return open(assets.openFd(fileName), "asset:" + fileName);
+    }
+
+    /**
+     * 映射描述符中从getStartOffset()开始、长度为getLength()的区间，索引中的偏移相对于这个区间的开头。
+     * source用来区分BitmapCache中的key，不同的贴图集要使用不同的值。描述符在返回前关闭
+     */
+    public static StickerPack open(AssetFileDescriptor afd, String source) throws IOException {
+        try {
+            // 不关闭这个流，描述符由afd关闭
+            FileChannel channel = new FileInputStream(afd.getFileDescriptor()).getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    afd.getStartOffset(), afd.getLength());
+            return readIndex(source, buffer);
+        } finally {
+            afd.close();
+        }
+    }
+
+    private static StickerPack readIndex(String source, MappedByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("not a sticker pack: " + source);
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("unsupported sticker pack version " + version);
+            }
+            int count = buffer.getInt();
+            if (count < 0) throw new IOException("bad sticker count " + count);
+            StickerPack pack = new StickerPack(source, buffer, count);
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                pack.mNames[i] = new String(name, UTF_8);
+                pack.mWidths[i] = buffer.getInt();
+                pack.mHeights[i] = buffer.getInt();
+                pack.mConfigs[i] = buffer.get();
+                pack.mOffsets[i] = buffer.getInt();
+                pack.mLengths[i] = buffer.getInt();
+                if (pack.mConfigs[i] != CONFIG_ARGB_8888 && pack.mConfigs[i] != CONFIG_RGB_565) {
+                    throw new IOException("unknown config " + pack.mConfigs[i] + " of sticker " + pack.mNames[i]);
+                }
+                int bytesPerPixel = pack.mConfigs[i] == CONFIG_RGB_565 ? 2 : 4;
+                if (pack.mWidths[i] <= 0 || pack.mHeights[i] <= 0 || pack.mOffsets[i] < 0
+                        || (long) pack.mWidths[i] * pack.mHeights[i] * bytesPerPixel != pack.mLengths[i]
+                        || (long) pack.mOffsets[i] + pack.mLengths[i] > buffer.capacity()) {
+                    throw new IOException("bad sticker entry " + pack.mNames[i]);
+                }
+                pack.mIndex.put(pack.mNames[i], i);
+            }
+            return pack;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated sticker pack: " + source);
+        }
+    }
+
+    public int size() {
+        return mNames.length;
+    }
+
+    /**
+     * 打开时的文件路径或"asset:"加上asset的名字
+     */
+    public String getSource() {
+        return mSource;
+    }
+
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * 名字对应的下标，没有时返回-1
+     */
+    public int indexOf(String name) {
+        Integer index = mIndex.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public int getWidth(int index) {
+        return mWidths[index];
+    }
+
+    public int getHeight(int index) {
+        return mHeights[index];
+    }
+
+    /**
+     * 从映射的内存中复制出第index个贴图，每次调用都创建新的Bitmap。可以在任意线程调用
+     */
+    public Bitmap decode(int index) {
+        Bitmap bitmap = Bitmap.createBitmap(mWidths[index], mHeights[index],
+                mConfigs[index] == CONFIG_RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+        // 每次使用独立的position、limit，多个线程同时复制不会互相影响
+        ByteBuffer pixels = mBuffer.duplicate();
+        pixels.limit(mOffsets[index] + mLengths[index]);
+        pixels.position(mOffsets[index]);
+        bitmap.copyPixelsFromBuffer(pixels);
+        return bitmap;
+    }
+
+    /**
+     * 第index个贴图在BitmapCache中的key
+     */
+    public String cacheKey(int index) {
+        return BitmapCache.packKey(mSource, mNames[index]);
+    }
+
+    /**
+     * 第index个贴图的图片来源引用，用于TransformState保存状态。
+     * 由贴图集的来源和贴图的名字组成，同一个文件或asset重新打开后仍然相同
+     */
+    public String sourceOf(int index) {
+        return BitmapCache.packKey(mSource, mNames[index]);
+    }
+
+    /**
+     * sourceOf得到的引用对应的下标，不是这个贴图集中的贴图时返回-1
+     */
+    public int indexOfSource(String source) {
+        String prefix = BitmapCache.packKey(mSource, "");
+        if (source == null || !source.startsWith(prefix)) return -1;
+        return indexOf(source.substring(prefix.length()));
+    }
+
+    /**
+     * 从共享的BitmapCache中获取第index个贴图并将引用计数加1，没有时从映射的内存复制。
+     * 不再使用时必须调用BitmapCache.getInstance().release(cacheKey(index))
+     */
+    public Bitmap acquire(int index) {
+        BitmapCache cache = BitmapCache.getInstance();
+        String key = cacheKey(index);
+        Bitmap bitmap = cache.acquire(key);
+        if (bitmap == null) {
+            bitmap = cache.put(key, decode(index));
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,401 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 按块解码的超大图片源，用于几千万像素的照片这类整张解码会内存不足的图片。
+ * 图片按采样率分级(第n级的采样率为 1 << n)，每一级切成TILE_SIZE * TILE_SIZE像素的块，
+ * 只在后台线程中用BitmapRegionDecoder解码当前可见区域需要的块。解码好的块放在按字节数限制大小的LRU缓存中，
+ * 需要的块还没解码好时先用已经有的更低分辨率的块(最后是整张图的预览块)代替。
+ * <p>
+ * 坐标：update、draw使用显示坐标(缩放比例为1时图片的宽高getWidth() * getHeight())，
+ * 块的位置按原始像素计算。除了解码，所有方法都在主线程调用。
+ */
+public class TiledSource {
+    /**
+     * 块的边长，单位为解码后的像素，ARGB_8888时一块占用256KB
+     */
+    public static final int TILE_SIZE = 256;
+    /**
+     * 最大的采样率级别，对应 1 << MAX_LEVEL
+     */
+    public static final int MAX_LEVEL = 7;
+    /**
+     * 默认使用最大可用内存的1/16作为块缓存的大小
+     */
+    private static final int DEFAULT_MEMORY_FRACTION = 16;
+
+    private final BitmapRegionDecoder mDecoder;
+    /**
+     * 图片原始的像素宽高
+     */
+    private final int mRawWidth, mRawHeight;
+    /**
+     * 显示时的宽高
+     */
+    private final int mWidth, mHeight;
+    /**
+     * 整张图缩小到一块以内的级别，这一块一直保留，作为最后的替代
+     */
+    private final int mPreviewLevel;
+    private Bitmap mPreview;
+    private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    /**
+     * 图片是否一定不透明(JPEG)，只有fromFile创建时能知道
+     */
+    private boolean mOpaque;
+    private final LruCache<Long, Bitmap> mTiles;
+    /**
+     * 正在后台解码的块
+     */
+    private final HashMap<Long, BitmapLoader.Task> mPending = new HashMap<Long, BitmapLoader.Task>();
+    /**
+     * 当前使用的级别和可见的块的范围(包含)，没有可见的块时mLevel为-1
+     */
+    private int mLevel = -1;
+    private int mColumnLeft, mRowTop, mColumnRight, mRowBottom;
+    private Listener mListener;
+    private boolean mReleased;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mDst = new RectF();
+
+    /**
+     * 有新的块解码完成，需要重绘，在主线程回调
+     */
+    public interface Listener {
+        void onTileLoaded(TiledSource source);
+    }
+
+    /**
+     * 创建图片源，之后decoder由TiledSource持有，release()时一起释放
+     *
+     * @param width  显示时的宽度
+     * @param height 显示时的高度
+     */
+    public TiledSource(BitmapRegionDecoder decoder, int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("size must be positive");
+        mDecoder = decoder;
+        mRawWidth = decoder.getWidth();
+        mRawHeight = decoder.getHeight();
+        mWidth = width;
+        mHeight = height;
+        int previewLevel = 0;
+        while (previewLevel < MAX_LEVEL && ((mRawWidth >> previewLevel) > TILE_SIZE || (mRawHeight >> previewLevel) > TILE_SIZE)) {
+            previewLevel++;
+        }
+        mPreviewLevel = previewLevel;
+        mTiles = new LruCache<Long, Bitmap>((int) (Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION)) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * 打开图片文件，显示大小按长边不超过maxSize等比缩小(图片本身更小时使用原始大小)
+     */
+    public static TiledSource fromFile(String path, int maxSize) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+        int rawWidth = decoder.getWidth();
+        int rawHeight = decoder.getHeight();
+        float fit = Math.min(1f, maxSize / (float) Math.max(rawWidth, rawHeight));
+        TiledSource source = new TiledSource(decoder, Math.max(1, Math.round(rawWidth * fit)), Math.max(1, Math.round(rawHeight * fit)));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        source.mOpaque = "image/jpeg".equals(options.outMimeType);
+        return source;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getRawWidth() {
+        return mRawWidth;
+    }
+
+    public int getRawHeight() {
+        return mRawHeight;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 图片是否一定不透明，JPEG没有alpha通道，可以用RGB_565解码
+     */
+    public boolean isOpaque() {
+        return mOpaque;
+    }
+
+    /**
+     * 设置块解码使用的Config，已经解码的块不受影响
+     */
+    public void setConfig(Bitmap.Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * 缩放比例为scale时应该使用的级别：在分辨率不低于显示需要的前提下采样率最大的一级
+     */
+    public int levelForScale(float scale) {
+        float ratio = mWidth * scale / mRawWidth;
+        int level = 0;
+        while (level < MAX_LEVEL && ratio * (2 << level) <= 1f
+                && (mRawWidth >> (level + 1)) > 0 && (mRawHeight >> (level + 1)) > 0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * 设置可见区域(显示坐标)和使用的级别，请求还没解码的可见块，取消已经不可见的块的解码。
+     * 范围和级别没有变化时什么都不做，可以在每次移动时调用
+     */
+    public void update(float left, float top, float right, float bottom, int level) {
+        if (mReleased) return;
+        if (mPreview == null) {
+            requestTile(mPreviewLevel, 0, 0);
+        }
+        float toRawX = mRawWidth / (float) mWidth;
+        float toRawY = mRawHeight / (float) mHeight;
+        int tileRawSize = TILE_SIZE << level;
+        int columnLeft = Math.max(0, (int) (left * toRawX) / tileRawSize);
+        int rowTop = Math.max(0, (int) (top * toRawY) / tileRawSize);
+        int columnRight = Math.min((mRawWidth - 1) / tileRawSize, (int) Math.ceil(right * toRawX) / tileRawSize);
+        int rowBottom = Math.min((mRawHeight - 1) / tileRawSize, (int) Math.ceil(bottom * toRawY) / tileRawSize);
+        if (right <= left || bottom <= top || columnLeft > columnRight || rowTop > rowBottom) {
+            // 图片完全不可见
+            level = -1;
+        }
+        if (level == mLevel && columnLeft == mColumnLeft && rowTop == mRowTop
+                && columnRight == mColumnRight && rowBottom == mRowBottom) {
+            return;
+        }
+        mLevel = level;
+        mColumnLeft = columnLeft;
+        mRowTop = rowTop;
+        mColumnRight = columnRight;
+        mRowBottom = rowBottom;
+
+        // 移出可见范围的块不再解码
+        Iterator<Map.Entry<Long, BitmapLoader.Task>> iterator = mPending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, BitmapLoader.Task> entry = iterator.next();
+            long key = entry.getKey();
+            if (!isVisible(levelOf(key), columnOf(key), rowOf(key))) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+        if (level < 0) return;
+        for (int row = rowTop; row <= rowBottom; row++) {
+            for (int column = columnLeft; column <= columnRight; column++) {
+                if (mTiles.get(key(level, column, row)) == null) {
+                    requestTile(level, column, row);
+                }
+            }
+        }
+    }
+
+    private boolean isVisible(int level, int column, int row) {
+        if (level == mPreviewLevel && column == 0 && row == 0 && mPreview == null) return true;
+        return level == mLevel && column >= mColumnLeft && column <= mColumnRight && row >= mRowTop && row <= mRowBottom;
+    }
+
+    /**
+     * 在后台线程中解码一块，已经在解码时不重复请求
+     */
+    private void requestTile(final int level, int column, int row) {
+        final long key = key(level, column, row);
+        if (mPending.containsKey(key)) return;
+        int tileRawSize = TILE_SIZE << level;
+        final Rect region = new Rect(column * tileRawSize, row * tileRawSize,
+                Math.min(mRawWidth, (column + 1) * tileRawSize), Math.min(mRawHeight, (row + 1) * tileRawSize));
+        final Bitmap.Config config = mConfig;
+        mPending.put(key, BitmapLoader.load(new BitmapLoader.Decoder() {
+            @Override
+            public Bitmap decode() {
+                return decodeRegion(region, level, config);
+            }
+        }, new BitmapLoader.Callback() {
+            @Override
+            public void onLoaded(Bitmap bitmap) {
+                mPending.remove(key);
+                if (bitmap == null || mReleased) return;
+                // 预览块也是第mPreviewLevel级的(0, 0)块，当前级别正好是这一级时可以直接使用
+                if (level == mPreviewLevel && columnOf(key) == 0 && rowOf(key) == 0) {
+                    mPreview = bitmap;
+                }
+                mTiles.put(key, bitmap);
+                if (mListener != null) {
+                    mListener.onTileLoaded(TiledSource.this);
+                }
+            }
+        }));
+    }
+
+    /**
+     * 按第level级的采样率解码原始像素中的region，可以在后台线程调用。decoder已经释放时返回null
+     */
+    private Bitmap decodeRegion(Rect region, int level, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1 << level;
+        options.inPreferredConfig = config;
+        try {
+            return mDecoder.decodeRegion(region, options);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按第level级的采样率解码整张图，用于导出，可以在后台线程调用
+     */
+    Bitmap decodeLevel(int level) {
+        return decodeRegion(new Rect(0, 0, mRawWidth, mRawHeight), level, mConfig);
+    }
+
+    /**
+     * 按缩放比例为scale时的级别解码region(显示坐标)部分，用于导出，可以在后台线程调用。
+     * 按原图像素向外取整，region改为实际解码的区域
+     */
+    Bitmap decodeRegion(RectF region, float scale) {
+        float toRawX = mRawWidth / (float) mWidth;
+        float toRawY = mRawHeight / (float) mHeight;
+        Rect raw = new Rect(Math.max(0, (int) Math.floor(region.left * toRawX)),
+                Math.max(0, (int) Math.floor(region.top * toRawY)),
+                Math.min(mRawWidth, (int) Math.ceil(region.right * toRawX)),
+                Math.min(mRawHeight, (int) Math.ceil(region.bottom * toRawY)));
+        if (raw.isEmpty()) return null;
+        region.set(raw.left / toRawX, raw.top / toRawY, raw.right / toRawX, raw.bottom / toRawY);
+        return decodeRegion(raw, levelForScale(scale), mConfig);
+    }
+
+    /**
+     * 在显示坐标系中画出可见的块。有块还没解码好时，先画预览块，再从低到高画缓存中已有的各级覆盖可见范围的块，
+     * 最后画当前级别解码好的块盖在上面
+     */
+    public void draw(Canvas canvas) {
+        if (mLevel < 0) return;
+        float toDisplayX = mWidth / (float) mRawWidth;
+        float toDisplayY = mHeight / (float) mRawHeight;
+        boolean missing = false;
+        for (int row = mRowTop; row <= mRowBottom && !missing; row++) {
+            for (int column = mColumnLeft; column <= mColumnRight; column++) {
+                if (mTiles.get(key(mLevel, column, row)) == null) {
+                    missing = true;
+                    break;
+                }
+            }
+        }
+        if (missing) {
+            if (mPreview != null) {
+                mDst.set(0, 0, mWidth, mHeight);
+                canvas.drawBitmap(mPreview, null, mDst, mPaint);
+            }
+            for (int level = MAX_LEVEL; level > mLevel; level--) {
+                int shift = level - mLevel;
+                drawTiles(canvas, level, mColumnLeft >> shift, mRowTop >> shift,
+                        mColumnRight >> shift, mRowBottom >> shift, toDisplayX, toDisplayY);
+            }
+        }
+        drawTiles(canvas, mLevel, mColumnLeft, mRowTop, mColumnRight, mRowBottom, toDisplayX, toDisplayY);
+    }
+
+    /**
+     * 画出第level级中范围内已经解码好的块
+     */
+    private void drawTiles(Canvas canvas, int level, int columnLeft, int rowTop, int columnRight, int rowBottom,
+                           float toDisplayX, float toDisplayY) {
+        for (int row = rowTop; row <= rowBottom; row++) {
+            for (int column = columnLeft; column <= columnRight; column++) {
+                Bitmap tile = mTiles.get(key(level, column, row));
+                if (tile != null) {
+                    drawTile(canvas, tile, level, column, row, toDisplayX, toDisplayY);
+                }
+            }
+        }
+    }
+
+    private void drawTile(Canvas canvas, Bitmap tile, int level, int column, int row, float toDisplayX, float toDisplayY) {
+        int tileRawSize = TILE_SIZE << level;
+        int left = column * tileRawSize;
+        int top = row * tileRawSize;
+        mDst.set(left * toDisplayX, top * toDisplayY,
+                Math.min(mRawWidth, left + tileRawSize) * toDisplayX, Math.min(mRawHeight, top + tileRawSize) * toDisplayY);
+        canvas.drawBitmap(tile, null, mDst, mPaint);
+    }
+
+    /**
+     * 丢弃所有解码好的块(保留预览块)，下一次update()时重新解码可见的块
+     */
+    public void evictTiles() {
+        mTiles.evictAll();
+        mLevel = -1;
+    }
+
+    /**
+     * 丢弃可见范围以外的块(保留预览块)，内存不足但仍在显示时使用
+     */
+    public void evictInvisibleTiles() {
+        for (Long key : mTiles.snapshot().keySet()) {
+            if (!isVisible(levelOf(key), columnOf(key), rowOf(key))) {
+                mTiles.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 取消所有解码，释放所有块和decoder，之后不能再使用
+     */
+    public void release() {
+        mReleased = true;
+        for (BitmapLoader.Task task : mPending.values()) {
+            task.cancel();
+        }
+        mPending.clear();
+        mTiles.evictAll();
+        mPreview = null;
+        mLevel = -1;
+        mDecoder.recycle();
+    }
+
+    /**
+     * 级别、列、行组合成缓存的key
+     */
+    private static long key(int level, int column, int row) {
+        return ((long) level << 56) | ((long) row << 28) | column;
+    }
+
+    private static int levelOf(long key) {
+        return (int) (key >>> 56);
+    }
+
+    private static int rowOf(long key) {
+        return (int) ((key >>> 28) & 0xFFFFFFF);
+    }
+
+    private static int columnOf(long key) {
+        return (int) (key & 0xFFFFFFF);
+    }
+}
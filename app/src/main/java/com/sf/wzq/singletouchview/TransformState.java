@@ -0,0 +1,262 @@
+package com.sf.wzq.singletouchview;
+
+import android.content.res.Resources;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个贴图的变换状态：中心点、旋转角度、缩放比例、是否水平翻转以及图片来源的引用(没有时为null)。
+ * 可以放进Parcel用于onSaveInstanceState，也可以把多个贴图编码成紧凑的二进制格式或JSON用于保存编辑会话。
+ * <p>
+ * 图片来源的引用是一个在不同的构建之间保持不变的字符串，不保存R.drawable的id(每次构建都可能变化)：
+ * 资源为"res:"加上Resources.getResourceName，例如"res:com.example:drawable/star"，用resourceSource生成、getResourceId解析；
+ * 贴图集中的贴图见StickerPack.sourceOf；其他的由使用者自己定义。
+ * <p>
+ * 二进制格式(大端)：int MAGIC，byte VERSION，int 个数，之后每个贴图依次为
+ * short 引用的UTF-8字节数(没有引用时为0)，引用，float centerX，float centerY，float degree，float scale，byte flags。
+ * flags的最低位为是否翻转
+ */
+public class TransformState implements Parcelable {
+    /**
+     * 二进制格式的标记 "STS1"
+     */
+    public static final int MAGIC = 0x53545331;
+    public static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 1 + 4;
+    /**
+     * 没有引用时一个贴图的字节数
+     */
+    private static final int MIN_RECORD_BYTES = 2 + 4 * 4 + 1;
+    private static final int FLAG_FLIPPED = 1;
+    private static final String RESOURCE_PREFIX = "res:";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mSource;
+    private final float mCenterX, mCenterY;
+    private final float mDegree;
+    private final float mScale;
+    private final boolean mFlipped;
+
+    public TransformState(String source, float centerX, float centerY, float degree, float scale) {
+        this(source, centerX, centerY, degree, scale, false);
+    }
+
+    public TransformState(String source, float centerX, float centerY, float degree, float scale, boolean flipped) {
+        mSource = source;
+        mCenterX = centerX;
+        mCenterY = centerY;
+        mDegree = degree;
+        mScale = scale;
+        mFlipped = flipped;
+    }
+
+    /**
+     * 读取engine当前的变换
+     */
+    public static TransformState from(TransformEngine engine, String source) {
+        return new TransformState(source, engine.getCenterX(), engine.getCenterY(), engine.getDegree(), engine.getScale(),
+                engine.isFlipped());
+    }
+
+    /**
+     * 把变换设置到engine中，之后需要再调用engine.update()
+     */
+    public void applyTo(TransformEngine engine) {
+        engine.setCenter(mCenterX, mCenterY);
+        engine.setDegree(mDegree);
+        engine.setScale(mScale);
+        engine.setFlipped(mFlipped);
+    }
+
+    /**
+     * 图片来源的引用，没有时为null
+     */
+    public String getSource() {
+        return mSource;
+    }
+
+    /**
+     * 资源的引用，resId为0或者资源不存在时返回null
+     */
+    public static String resourceSource(Resources resources, int resId) {
+        if (resId == 0) return null;
+        try {
+            return RESOURCE_PREFIX + resources.getResourceName(resId);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按名字查找资源引用在当前构建中的id，不是资源的引用或者资源已经不存在时返回0
+     */
+    public static int getResourceId(Resources resources, String source) {
+        if (source == null || !source.startsWith(RESOURCE_PREFIX)) return 0;
+        return resources.getIdentifier(source.substring(RESOURCE_PREFIX.length()), null, null);
+    }
+
+    public float getCenterX() {
+        return mCenterX;
+    }
+
+    public float getCenterY() {
+        return mCenterY;
+    }
+
+    public float getDegree() {
+        return mDegree;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public boolean isFlipped() {
+        return mFlipped;
+    }
+
+    /**
+     * 把多个贴图的状态编码成二进制
+     */
+    public static byte[] toBytes(List<TransformState> states) {
+        byte[][] sources = new byte[states.size()][];
+        int length = HEADER_BYTES + MIN_RECORD_BYTES * states.size();
+        for (int i = 0, size = states.size(); i < size; i++) {
+            String source = states.get(i).mSource;
+            sources[i] = source == null ? new byte[0] : source.getBytes(UTF_8);
+            if (sources[i].length > 0xFFFF) {
+                throw new IllegalArgumentException("source too long: " + source);
+            }
+            length += sources[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putInt(states.size());
+        for (int i = 0, size = states.size(); i < size; i++) {
+            TransformState state = states.get(i);
+            buffer.putShort((short) sources[i].length);
+            buffer.put(sources[i]);
+            buffer.putFloat(state.mCenterX);
+            buffer.putFloat(state.mCenterY);
+            buffer.putFloat(state.mDegree);
+            buffer.putFloat(state.mScale);
+            buffer.put((byte) (state.mFlipped ? FLAG_FLIPPED : 0));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 从toBytes的结果中读出所有贴图的状态，数据格式不对时抛出IllegalArgumentException
+     */
+    public static List<TransformState> fromBytes(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("not a transform state");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported version " + version);
+            }
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / MIN_RECORD_BYTES) {
+                throw new IllegalArgumentException("bad count " + count);
+            }
+            List<TransformState> states = new ArrayList<TransformState>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] source = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(source);
+                float centerX = buffer.getFloat();
+                float centerY = buffer.getFloat();
+                float degree = buffer.getFloat();
+                float scale = buffer.getFloat();
+                int flags = buffer.get();
+                states.add(new TransformState(source.length == 0 ? null : new String(source, UTF_8), centerX, centerY, degree, scale, (flags & FLAG_FLIPPED) != 0));
+            }
+            return states;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated transform state");
+        }
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        if (mSource != null) {
+            json.put("source", mSource);
+        }
+        json.put("centerX", mCenterX);
+        json.put("centerY", mCenterY);
+        json.put("degree", mDegree);
+        json.put("scale", mScale);
+        json.put("flipped", mFlipped);
+        return json;
+    }
+
+    public static TransformState fromJson(JSONObject json) throws JSONException {
+        return new TransformState(json.has("source") ? json.getString("source") : null,
+                (float) json.getDouble("centerX"), (float) json.getDouble("centerY"),
+                (float) json.optDouble("degree", 0), (float) json.optDouble("scale", 1),
+                json.optBoolean("flipped", false));
+    }
+
+    public static JSONArray toJson(List<TransformState> states) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0, size = states.size(); i < size; i++) {
+            array.put(states.get(i).toJson());
+        }
+        return array;
+    }
+
+    public static List<TransformState> fromJson(JSONArray array) throws JSONException {
+        List<TransformState> states = new ArrayList<TransformState>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            states.add(fromJson(array.getJSONObject(i)));
+        }
+        return states;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mSource);
+        dest.writeFloat(mCenterX);
+        dest.writeFloat(mCenterY);
+        dest.writeFloat(mDegree);
+        dest.writeFloat(mScale);
+        dest.writeInt(mFlipped ? 1 : 0);
+    }
+
+    public static final Creator<TransformState> CREATOR = new Creator<TransformState>() {
+        @Override
+        public TransformState createFromParcel(Parcel source) {
+            return new TransformState(source.readString(), source.readFloat(), source.readFloat(),
+                    source.readFloat(), source.readFloat(), source.readInt() != 0);
+        }
+
+        @Override
+        public TransformState[] newArray(int size) {
+            return new TransformState[size];
+        }
+    };
+
+    @Override
+    public String toString() {
+        return "TransformState{source=" + mSource + ", center=(" + mCenterX + ", " + mCenterY
+                + "), degree=" + mDegree + ", scale=" + mScale + ", flipped=" + mFlipped + "}";
+    }
+}
@@ -0,0 +1,263 @@
+package com.sf.wzq.singletouchview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+
+/**
+ * 按缩放比例光栅化的矢量图片源，用于shape、矢量图、Path等非位图的Drawable。
+ * 缩放比例按每BUCKETS_PER_OCTAVE级放大一倍量化，同一级内的缩放不重新光栅化，
+ * 光栅化的分辨率不低于显示需要，放大后仍然清晰。最多同时保留MAX_RESIDENT_BUCKETS级，其余的释放掉。
+ * 来自资源时结果放在共享的BitmapCache中，多个View使用同一资源的同一级时共享同一个Bitmap。
+ * 所有方法都在主线程调用，loadAsync在后台线程中光栅化；canRasterizeInBackground为true时rasterizeCopy也可以在后台线程调用。
+ */
+public class VectorSource {
+    /**
+     * 每放大一倍分成几级，2表示每级相差约1.41倍
+     */
+    public static final int BUCKETS_PER_OCTAVE = 2;
+    /**
+     * 同时保留在内存中的级数
+     */
+    public static final int MAX_RESIDENT_BUCKETS = 2;
+    /**
+     * 光栅化结果的长边上限，缩放比例再大也不超过这个大小
+     */
+    public static final int MAX_RASTER_SIZE = 2048;
+
+    private final Drawable mDrawable;
+    /**
+     * 资源id，不是来自资源时为0，此时不放进BitmapCache
+     */
+    private final int mResId;
+    /**
+     * 缩放比例为1时的宽高
+     */
+    private final int mWidth, mHeight;
+    /**
+     * 光栅化使用的Config，ALPHA_8时只保留形状，颜色由绘制时的Paint决定
+     */
+    private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    /**
+     * 保留的各级：级别、光栅化结果、最近一次使用的序号
+     */
+    private final int[] mBuckets = new int[MAX_RESIDENT_BUCKETS];
+    private final Bitmap[] mBitmaps = new Bitmap[MAX_RESIDENT_BUCKETS];
+    private final long[] mLastUsed = new long[MAX_RESIDENT_BUCKETS];
+    private long mUseCounter;
+
+    /**
+     * @param width  缩放比例为1时的宽度
+     * @param height 缩放比例为1时的高度
+     */
+    public VectorSource(Drawable drawable, int resId, int width, int height) {
+        mDrawable = drawable;
+        mResId = resId;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getResId() {
+        return mResId;
+    }
+
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * 设置光栅化使用的Config，会释放已经光栅化的结果
+     */
+    public void setConfig(Bitmap.Config config) {
+        if (config == null) config = Bitmap.Config.ARGB_8888;
+        if (mConfig == config) return;
+        release();
+        mConfig = config;
+    }
+
+    /**
+     * 缩放比例为scale时使用的级别：光栅化的倍数不低于scale的最小一级，并且长边不超过MAX_RASTER_SIZE
+     */
+    public int bucketForScale(float scale) {
+        int bucket = (int) Math.ceil(Math.log(scale) / Math.log(2) * BUCKETS_PER_OCTAVE - 1e-3);
+        while (Math.max(mWidth, mHeight) * scaleOfBucket(bucket) > MAX_RASTER_SIZE && scaleOfBucket(bucket) > 1f) {
+            bucket--;
+        }
+        return bucket;
+    }
+
+    /**
+     * 第bucket级光栅化的倍数
+     */
+    public static float scaleOfBucket(int bucket) {
+        return (float) Math.pow(2, bucket / (double) BUCKETS_PER_OCTAVE);
+    }
+
+    /**
+     * 获取缩放比例为scale时使用的Bitmap，需要时光栅化，并释放最久未使用的多余级别
+     */
+    public Bitmap getBitmap(float scale) {
+        int bucket = bucketForScale(scale);
+        Bitmap bitmap = getBucketIfReady(bucket);
+        if (bitmap != null) return bitmap;
+        bitmap = rasterize(mDrawable, rasterWidth(bucket), rasterHeight(bucket), mConfig);
+        return bitmap == null ? null : installBucket(bucket, bitmap);
+    }
+
+    /**
+     * 缩放比例为scale时使用的一级已经光栅化(或者在BitmapCache中)时返回它，否则返回null，不会光栅化
+     */
+    public Bitmap getBitmapIfReady(float scale) {
+        return getBucketIfReady(bucketForScale(scale));
+    }
+
+    /**
+     * 在后台线程中光栅化缩放比例为scale时使用的一级，完成后在主线程中放入并回调。
+     * Drawable使用ConstantState创建的新实例，没有ConstantState时无法在后台绘制，在主线程中光栅化
+     */
+    public BitmapLoader.Task loadAsync(float scale, final BitmapLoader.Callback callback) {
+        final int bucket = bucketForScale(scale);
+        final Drawable.ConstantState state = mDrawable.getConstantState();
+        final int width = rasterWidth(bucket);
+        final int height = rasterHeight(bucket);
+        final Bitmap.Config config = mConfig;
+        return BitmapLoader.load(new BitmapLoader.Decoder() {
+            @Override
+            public Bitmap decode() {
+                return state == null ? null : rasterize(state.newDrawable(), width, height, config);
+            }
+        }, new BitmapLoader.Callback() {
+            @Override
+            public void onLoaded(Bitmap bitmap) {
+                Bitmap ready = getBucketIfReady(bucket);
+                if (ready != null) {
+                    // 等待期间已经光栅化了同一级
+                    if (bitmap != null) bitmap.recycle();
+                    callback.onLoaded(ready);
+                } else if (bitmap != null && config == mConfig) {
+                    callback.onLoaded(installBucket(bucket, bitmap));
+                } else {
+                    callback.onLoaded(getBitmap(scaleOfBucket(bucket)));
+                }
+            }
+        });
+    }
+
+    private Bitmap getBucketIfReady(int bucket) {
+        for (int i = 0; i < MAX_RESIDENT_BUCKETS; i++) {
+            if (mBitmaps[i] != null && mBuckets[i] == bucket) {
+                mLastUsed[i] = ++mUseCounter;
+                return mBitmaps[i];
+            }
+        }
+        if (mResId == 0) return null;
+        Bitmap bitmap = BitmapCache.getInstance().acquire(rasterKey(rasterWidth(bucket), rasterHeight(bucket)));
+        if (bitmap != null) {
+            putSlot(bucket, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 把新光栅化的一级放进BitmapCache并持有，返回实际使用的Bitmap
+     */
+    private Bitmap installBucket(int bucket, Bitmap bitmap) {
+        if (mResId != 0) {
+            bitmap = BitmapCache.getInstance().put(rasterKey(bitmap.getWidth(), bitmap.getHeight()), bitmap);
+        }
+        putSlot(bucket, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 放进空位，没有空位时替换最久未使用的一级
+     */
+    private void putSlot(int bucket, Bitmap bitmap) {
+        int slot = -1;
+        for (int i = 0; i < MAX_RESIDENT_BUCKETS; i++) {
+            if (slot == -1 || (mBitmaps[slot] != null && (mBitmaps[i] == null || mLastUsed[i] < mLastUsed[slot]))) {
+                slot = i;
+            }
+        }
+        releaseSlot(slot);
+        mBuckets[slot] = bucket;
+        mBitmaps[slot] = bitmap;
+        mLastUsed[slot] = ++mUseCounter;
+    }
+
+    /**
+     * Drawable有ConstantState时光栅化使用新的实例，rasterizeCopy可以在后台线程调用
+     */
+    public boolean canRasterizeInBackground() {
+        return mDrawable.getConstantState() != null;
+    }
+
+    /**
+     * 按scale倍光栅化一份新的Bitmap，不放进缓存，用于导出。
+     * canRasterizeInBackground为false时绘制的是View正在使用的Drawable，会修改它的bounds，只能在主线程调用
+     */
+    public Bitmap rasterizeCopy(float scale) {
+        Drawable.ConstantState state = mDrawable.getConstantState();
+        Drawable drawable = state != null ? state.newDrawable() : mDrawable;
+        return rasterize(drawable, Math.max(1, Math.round(mWidth * scale)), Math.max(1, Math.round(mHeight * scale)), mConfig);
+    }
+
+    private String rasterKey(int width, int height) {
+        return BitmapCache.withConfig(BitmapCache.resourceKey(mResId, width, height), mConfig);
+    }
+
+    private int rasterWidth(int bucket) {
+        return Math.max(1, Math.round(mWidth * scaleOfBucket(bucket)));
+    }
+
+    private int rasterHeight(int bucket) {
+        return Math.max(1, Math.round(mHeight * scaleOfBucket(bucket)));
+    }
+
+    private static Bitmap rasterize(Drawable drawable, int width, int height, Bitmap.Config config) {
+        Bitmap bitmap;
+        try {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * 释放所有光栅化的结果
+     */
+    public void release() {
+        for (int i = 0; i < MAX_RESIDENT_BUCKETS; i++) {
+            releaseSlot(i);
+        }
+    }
+
+    /**
+     * 释放除inUse以外的光栅化结果，内存不足但仍在显示时使用
+     */
+    public void releaseExcept(Bitmap inUse) {
+        for (int i = 0; i < MAX_RESIDENT_BUCKETS; i++) {
+            if (mBitmaps[i] != inUse) releaseSlot(i);
+        }
+    }
+
+    private void releaseSlot(int slot) {
+        if (mBitmaps[slot] == null) return;
+        if (mResId != 0) {
+            BitmapCache.getInstance().release(rasterKey(mBitmaps[slot].getWidth(), mBitmaps[slot].getHeight()));
+        }
+        mBitmaps[slot] = null;
+    }
+}
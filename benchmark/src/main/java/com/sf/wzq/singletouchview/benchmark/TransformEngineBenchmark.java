@@ -0,0 +1,104 @@
+package com.sf.wzq.singletouchview.benchmark;
+
+import com.sf.wzq.singletouchview.TransformEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransformEngine手势热路径上每次调用的耗时，单位ns/op。
+ * 手指的采样点预先生成一圈，每次调用取下一个点，避免JIT把固定的输入当成常量优化掉。
+ * move为一个旋转缩放采样点的完整处理：rotateZoom、update和计算绘制矩阵
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformEngineBenchmark {
+    /**
+     * 一圈的采样点数，必须是2的幂
+     */
+    private static final int SAMPLES = 256;
+
+    private final TransformEngine mEngine = new TransformEngine();
+    /**
+     * 双指手势使用单独的实例，与单指的旋转缩放手势互不影响
+     */
+    private final TransformEngine mPinchEngine = new TransformEngine();
+    private final float[] mXs = new float[SAMPLES];
+    private final float[] mYs = new float[SAMPLES];
+    private final float[] mMatrixValues = new float[9];
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mEngine.setImageSize(400, 300);
+        mEngine.setPadding(8);
+        mEngine.setCenter(540, 960);
+        mEngine.update();
+        // 控制点绕中心转一圈，同时到中心的距离在图片半对角线的0.5到1.5倍之间变化
+        for (int i = 0; i < SAMPLES; i++) {
+            double angle = 2 * Math.PI * i / SAMPLES;
+            double radius = 250 * (1 + 0.5 * Math.sin(angle * 3));
+            mXs[i] = (float) (540 + radius * Math.cos(angle));
+            mYs[i] = (float) (960 + radius * Math.sin(angle));
+        }
+        mEngine.startRotateZoom(mXs[0], mYs[0]);
+        mPinchEngine.set(mEngine);
+        mPinchEngine.startPinch(mXs[0], mYs[0], 1080 - mXs[0], 1920 - mYs[0]);
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) & (SAMPLES - 1);
+        return mIndex;
+    }
+
+    @Benchmark
+    public float update() {
+        mEngine.setDegree(mIndex++);
+        mEngine.update();
+        return mEngine.getHalfBoundsWidth();
+    }
+
+    @Benchmark
+    public float rotateZoom() {
+        int i = next();
+        mEngine.rotateZoom(mXs[i], mYs[i]);
+        return mEngine.getDegree();
+    }
+
+    @Benchmark
+    public float pinch() {
+        int i = next();
+        // 第二个手指在中心点的另一侧对称移动
+        mPinchEngine.pinch(mXs[i], mYs[i], 1080 - mXs[i], 1920 - mYs[i]);
+        return mPinchEngine.getScale();
+    }
+
+    @Benchmark
+    public float[] getMatrixValues() {
+        mEngine.getMatrixValues(mMatrixValues, 800, 600, 300, 250);
+        return mMatrixValues;
+    }
+
+    @Benchmark
+    public float[] move() {
+        int i = next();
+        mEngine.rotateZoom(mXs[i], mYs[i]);
+        mEngine.update();
+        mEngine.getMatrixValues(mMatrixValues, 800, 600, 300, 250);
+        return mMatrixValues;
+    }
+}
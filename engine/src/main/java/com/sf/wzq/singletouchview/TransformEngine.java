@@ -0,0 +1,455 @@
+package com.sf.wzq.singletouchview;
+
+/**
+ * 图片平移、缩放、旋转的变换计算，只使用float和基本类型，不依赖android的类，
+ * 可以在普通的JVM上测试和做性能测试。SingleTouchView和StickerCanvasView中的贴图都委托给它计算。
+ * <p>
+ * 保存中心点、角度、缩放比例等状态，update()时计算四个角(相对于中心点)和外接矩形，
+ * 每次update只计算一次sin、cos，计算过程不分配对象。
+ */
+public class TransformEngine {
+    /**
+     * 四个角的下标
+     */
+    public static final int LEFT_TOP = 0;
+    public static final int RIGHT_TOP = 1;
+    public static final int RIGHT_BOTTOM = 2;
+    public static final int LEFT_BOTTOM = 3;
+    /**
+     * 默认的缩放比例范围
+     */
+    public static final float DEFAULT_MIN_SCALE = 0.3f;
+    public static final float DEFAULT_MAX_SCALE = 10.0f;
+    /**
+     * 弹性缩放时超出范围部分的阻尼系数，越小越难拉出范围
+     */
+    private static final float OVERSCALE_RESISTANCE = 0.3f;
+    /**
+     * 默认的角度吸附范围，单位度
+     */
+    public static final float DEFAULT_SNAP_TOLERANCE = 5f;
+
+    /**
+     * 中心点坐标
+     */
+    private float mCenterX, mCenterY;
+    /**
+     * 旋转角度
+     */
+    private float mDegree;
+    /**
+     * 缩放比例
+     */
+    private float mScale = 1f;
+    private float mMinScale = DEFAULT_MIN_SCALE;
+    private float mMaxScale = DEFAULT_MAX_SCALE;
+    /**
+     * 旋转缩放手势是否允许带阻尼地超出缩放范围，松手后由调用者回弹
+     */
+    private boolean mElasticScale;
+    /**
+     * 是否水平翻转
+     */
+    private boolean mFlipped;
+    /**
+     * 旋转手势中吸附到mSnapStep的整数倍，与最近的倍数相差不超过mSnapTolerance时吸附，mSnapStep为0时不吸附
+     */
+    private float mSnapStep;
+    private float mSnapTolerance = DEFAULT_SNAP_TOLERANCE;
+    /**
+     * 图片缩放比例为1时的宽高
+     */
+    private float mImageWidth, mImageHeight;
+    /**
+     * 旋转手势开始时的角度、手势中累计转过的弧度以及上一个采样点相对中心点的角度
+     */
+    private float mRotateStartDegree;
+    private double mRotateAngle;
+    private double mLastAngle;
+    /**
+     * 双指手势开始时的缩放比例、两指间的距离，以及上一个采样点两指的中点
+     */
+    private float mPinchStartScale;
+    private float mPinchStartDistance;
+    private float mLastFocusX, mLastFocusY;
+    /**
+     * 边框与图片之间的间距
+     */
+    private float mPadding;
+    /**
+     * 最近一次update时角度的sin、cos
+     */
+    private float mSin, mCos = 1f;
+    /**
+     * 加上边框间距后四个角相对于中心点的坐标，依次为左上，右上，右下，左下的x, y
+     */
+    private final float[] mCorners = new float[8];
+    /**
+     * 外接矩形宽高的一半
+     */
+    private float mHalfBoundsWidth, mHalfBoundsHeight;
+
+    /**
+     * 复制other的中心点、角度、缩放比例、范围、翻转、角度吸附、图片大小和边框间距，复制后需要再调用update()
+     */
+    public void set(TransformEngine other) {
+        mCenterX = other.mCenterX;
+        mCenterY = other.mCenterY;
+        mDegree = other.mDegree;
+        mScale = other.mScale;
+        mMinScale = other.mMinScale;
+        mMaxScale = other.mMaxScale;
+        mElasticScale = other.mElasticScale;
+        mFlipped = other.mFlipped;
+        mSnapStep = other.mSnapStep;
+        mSnapTolerance = other.mSnapTolerance;
+        mImageWidth = other.mImageWidth;
+        mImageHeight = other.mImageHeight;
+        mPadding = other.mPadding;
+    }
+
+    /**
+     * 根据当前状态重新计算sin、cos、四个角和外接矩形
+     */
+    public void update() {
+        double radian = Math.toRadians(mDegree);
+        mSin = (float) Math.sin(radian);
+        mCos = (float) Math.cos(radian);
+
+        float halfWidth = getHalfWidth();
+        float halfHeight = getHalfHeight();
+        setCorner(LEFT_TOP, -halfWidth, -halfHeight);
+        setCorner(RIGHT_TOP, halfWidth, -halfHeight);
+        setCorner(RIGHT_BOTTOM, halfWidth, halfHeight);
+        setCorner(LEFT_BOTTOM, -halfWidth, halfHeight);
+
+        mHalfBoundsWidth = Math.abs(halfWidth * mCos) + Math.abs(halfHeight * mSin);
+        mHalfBoundsHeight = Math.abs(halfWidth * mSin) + Math.abs(halfHeight * mCos);
+    }
+
+    /**
+     * 将相对于中心点的(x, y)旋转后写入第index个角
+     */
+    private void setCorner(int index, float x, float y) {
+        mCorners[index * 2] = x * mCos - y * mSin;
+        mCorners[index * 2 + 1] = x * mSin + y * mCos;
+    }
+
+    /**
+     * 加上边框间距后宽度的一半
+     */
+    private float getHalfWidth() {
+        return mImageWidth * mScale / 2 + mPadding;
+    }
+
+    /**
+     * 加上边框间距后高度的一半
+     */
+    private float getHalfHeight() {
+        return mImageHeight * mScale / 2 + mPadding;
+    }
+
+    /**
+     * 开始一次旋转缩放手势，(x, y)为按下的控制点，与中心点使用同一个坐标系
+     */
+    public void startRotateZoom(float x, float y) {
+        mRotateStartDegree = mDegree;
+        mRotateAngle = 0;
+        mLastAngle = Math.atan2(y - mCenterY, x - mCenterX);
+    }
+
+    /**
+     * 控制点移动到(x, y)时，根据到中心点的距离计算缩放比例，根据相对中心点的绝对角度计算旋转角度。
+     * 每个采样点只计算一次atan2，转过的角度按弧度累加后再换算，慢速旋转不会因为误差漂移，
+     * 转一整圈后角度正好增加360度。只修改角度和缩放比例，需要再调用update()
+     */
+    public void rotateZoom(float x, float y) {
+        float dx = x - mCenterX;
+        float dy = y - mCenterY;
+
+        //图片某个点到图片中心的距离
+        float imageToCenterDistance = length(mImageWidth / 2, mImageHeight / 2);
+
+        //计算缩放比例, 并做界限判断
+        float scale = length(dx, dy) / imageToCenterDistance;
+        mScale = mElasticScale ? rubberBandScale(scale) : clampScale(scale);
+
+        rotateTo(Math.atan2(dy, dx));
+    }
+
+    /**
+     * 累加与上一个采样点的角度差，跨过-PI/PI时展开到(-PI, PI]，再换算成旋转角度。
+     * 累加的是手指实际转过的角度，吸附只影响mDegree，转出吸附范围后角度继续跟随手指
+     */
+    private void rotateTo(double angle) {
+        double delta = angle - mLastAngle;
+        if (delta > Math.PI) {
+            delta -= 2 * Math.PI;
+        } else if (delta <= -Math.PI) {
+            delta += 2 * Math.PI;
+        }
+        mLastAngle = angle;
+        mRotateAngle += delta;
+        mDegree = snapDegree((float) (mRotateStartDegree + Math.toDegrees(mRotateAngle)));
+    }
+
+    /**
+     * 角度与mSnapStep最近的整数倍相差不超过mSnapTolerance时返回该整数倍
+     */
+    private float snapDegree(float degree) {
+        if (mSnapStep <= 0) return degree;
+        float nearest = Math.round(degree / mSnapStep) * mSnapStep;
+        return Math.abs(degree - nearest) <= mSnapTolerance ? nearest : degree;
+    }
+
+    /**
+     * 开始一次双指手势，(x0, y0)、(x1, y1)为两个手指的位置，与中心点使用同一个坐标系
+     */
+    public void startPinch(float x0, float y0, float x1, float y1) {
+        mPinchStartScale = mScale;
+        mPinchStartDistance = Math.max(length(x1 - x0, y1 - y0), 1f);
+        mRotateStartDegree = mDegree;
+        mRotateAngle = 0;
+        mLastAngle = Math.atan2(y1 - y0, x1 - x0);
+        mLastFocusX = (x0 + x1) / 2;
+        mLastFocusY = (y0 + y1) / 2;
+    }
+
+    /**
+     * 两个手指移动到(x0, y0)、(x1, y1)时：按两指距离的比例缩放，按两指连线转过的角度旋转，
+     * 中心点跟随两指的中点平移。与rotateZoom一样每个采样点只计算一次atan2。
+     * 修改中心点、角度和缩放比例，需要再调用update()
+     */
+    public void pinch(float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+
+        float scale = mPinchStartScale * length(dx, dy) / mPinchStartDistance;
+        mScale = mElasticScale ? rubberBandScale(scale) : clampScale(scale);
+
+        rotateTo(Math.atan2(dy, dx));
+
+        float focusX = (x0 + x1) / 2;
+        float focusY = (y0 + y1) / 2;
+        mCenterX += focusX - mLastFocusX;
+        mCenterY += focusY - mLastFocusY;
+        mLastFocusX = focusX;
+        mLastFocusY = focusY;
+    }
+
+    /**
+     * 缩放比例的界限判断
+     */
+    public float clampScale(float scale) {
+        if (scale <= mMinScale) return mMinScale;
+        if (scale >= mMaxScale) return mMaxScale;
+        return scale;
+    }
+
+    /**
+     * 超出缩放范围的部分按OVERSCALE_RESISTANCE衰减，越往外拉越难拉动
+     */
+    public float rubberBandScale(float scale) {
+        if (scale > mMaxScale) {
+            return mMaxScale * (1 + (scale / mMaxScale - 1) * OVERSCALE_RESISTANCE);
+        }
+        if (scale < mMinScale) {
+            return mMinScale / (1 + (mMinScale / scale - 1) * OVERSCALE_RESISTANCE);
+        }
+        return scale;
+    }
+
+    /**
+     * 当前缩放比例是否在范围内
+     */
+    public boolean isScaleInRange() {
+        return mScale >= mMinScale && mScale <= mMaxScale;
+    }
+
+    /**
+     * 点(x, y)是否在加上边框间距后旋转的矩形内，使用最近一次update的结果
+     */
+    public boolean contains(float x, float y) {
+        float dx = x - mCenterX;
+        float dy = y - mCenterY;
+        // 反向旋转回图片自身的坐标系
+        float localX = dx * mCos + dy * mSin;
+        float localY = -dx * mSin + dy * mCos;
+        return Math.abs(localX) <= getHalfWidth() && Math.abs(localY) <= getHalfHeight();
+    }
+
+    /**
+     * 把中心点所在坐标系中的矩形反向变换到图片自身的坐标系(缩放比例为1时的0..imageWidth, 0..imageHeight)，
+     * 四个角反向变换后的外接矩形按left, top, right, bottom写入out。需要先调用update()
+     */
+    public void mapRectToImage(float left, float top, float right, float bottom, float[] out) {
+        out[0] = Float.MAX_VALUE;
+        out[1] = Float.MAX_VALUE;
+        out[2] = -Float.MAX_VALUE;
+        out[3] = -Float.MAX_VALUE;
+        mapPointToImage(left, top, out);
+        mapPointToImage(right, top, out);
+        mapPointToImage(right, bottom, out);
+        mapPointToImage(left, bottom, out);
+    }
+
+    private void mapPointToImage(float x, float y, float[] out) {
+        float dx = x - mCenterX;
+        float dy = y - mCenterY;
+        float localX = (dx * mCos + dy * mSin) / mScale;
+        float localY = (-dx * mSin + dy * mCos) / mScale;
+        if (mFlipped) localX = -localX;
+        localX += mImageWidth / 2;
+        localY += mImageHeight / 2;
+        out[0] = Math.min(out[0], localX);
+        out[1] = Math.min(out[1], localY);
+        out[2] = Math.max(out[2], localX);
+        out[3] = Math.max(out[3], localY);
+    }
+
+    /**
+     * 计算把bitmapWidth * bitmapHeight的图片画到当前变换位置的3x3矩阵，按android.graphics.Matrix#setValues的顺序写入values。
+     * 图片中心被移到(pivotX, pivotY)，bitmap的大小可以与图片显示大小不同(如采样解码)，会一起换算
+     */
+    public void getMatrixValues(float[] values, int bitmapWidth, int bitmapHeight, float pivotX, float pivotY) {
+        // 水平翻转时在图片自身的坐标系中先做镜像
+        float scaleX = (mFlipped ? -mScale : mScale) * mImageWidth / bitmapWidth;
+        float scaleY = mScale * mImageHeight / bitmapHeight;
+        float halfBitmapWidth = bitmapWidth / 2f;
+        float halfBitmapHeight = bitmapHeight / 2f;
+        // T(pivot) * R(degree) * S(scale) * T(-bitmap / 2)
+        values[0] = mCos * scaleX;
+        values[1] = -mSin * scaleY;
+        values[2] = pivotX - mCos * scaleX * halfBitmapWidth + mSin * scaleY * halfBitmapHeight;
+        values[3] = mSin * scaleX;
+        values[4] = mCos * scaleY;
+        values[5] = pivotY - mSin * scaleX * halfBitmapWidth - mCos * scaleY * halfBitmapHeight;
+        values[6] = 0f;
+        values[7] = 0f;
+        values[8] = 1f;
+    }
+
+    private static float length(float x, float y) {
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    public float getCenterX() {
+        return mCenterX;
+    }
+
+    public float getCenterY() {
+        return mCenterY;
+    }
+
+    public void setCenter(float x, float y) {
+        mCenterX = x;
+        mCenterY = y;
+    }
+
+    public void offsetCenter(float dx, float dy) {
+        mCenterX += dx;
+        mCenterY += dy;
+    }
+
+    public float getDegree() {
+        return mDegree;
+    }
+
+    public void setDegree(float degree) {
+        mDegree = degree;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public void setScale(float scale) {
+        mScale = scale;
+    }
+
+    public void setScaleLimits(float minScale, float maxScale) {
+        mMinScale = minScale;
+        mMaxScale = maxScale;
+    }
+
+    public boolean isFlipped() {
+        return mFlipped;
+    }
+
+    public void setFlipped(boolean flipped) {
+        mFlipped = flipped;
+    }
+
+    public float getSnapStep() {
+        return mSnapStep;
+    }
+
+    public float getSnapTolerance() {
+        return mSnapTolerance;
+    }
+
+    /**
+     * 设置旋转手势的角度吸附，step为0时不吸附，例如(90, 5)时85到95度之间都显示为90度
+     */
+    public void setAngleSnap(float step, float tolerance) {
+        mSnapStep = step;
+        mSnapTolerance = tolerance;
+    }
+
+    public boolean isElasticScale() {
+        return mElasticScale;
+    }
+
+    public void setElasticScale(boolean elastic) {
+        mElasticScale = elastic;
+    }
+
+    public float getImageWidth() {
+        return mImageWidth;
+    }
+
+    public float getImageHeight() {
+        return mImageHeight;
+    }
+
+    public void setImageSize(float width, float height) {
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    public float getPadding() {
+        return mPadding;
+    }
+
+    public void setPadding(float padding) {
+        mPadding = padding;
+    }
+
+    /**
+     * 第index个角相对于中心点的x坐标
+     */
+    public float getCornerX(int index) {
+        return mCorners[index * 2];
+    }
+
+    /**
+     * 第index个角相对于中心点的y坐标
+     */
+    public float getCornerY(int index) {
+        return mCorners[index * 2 + 1];
+    }
+
+    /**
+     * 外接矩形宽度的一半
+     */
+    public float getHalfBoundsWidth() {
+        return mHalfBoundsWidth;
+    }
+
+    /**
+     * 外接矩形高度的一半
+     */
+    public float getHalfBoundsHeight() {
+        return mHalfBoundsHeight;
+    }
+}
@@ -0,0 +1,155 @@
+package com.sf.wzq.singletouchview;
+
+/**
+ * 变换的撤销、重做记录。
+ * 每条记录是一次手势结束后的中心点、角度、缩放比例和是否翻转，按顺序存放在一个float数组组成的环形缓冲区中，
+ * 不为每条记录创建对象。记录数超过上限时丢弃最旧的一条，占用的内存固定为 上限 * RECORD_FIELDS 个float。
+ */
+public class TransformHistory {
+    /**
+     * 默认最多保存的记录数
+     */
+    public static final int DEFAULT_CAPACITY = 50;
+    /**
+     * 每条记录的字段数：centerX, centerY, degree, scale, flipped(1或0)
+     */
+    private static final int RECORD_FIELDS = 5;
+
+    private float[] mRecords;
+    private int mCapacity;
+    /**
+     * 最旧的一条记录在环形缓冲区中的位置
+     */
+    private int mStart;
+    /**
+     * 记录数
+     */
+    private int mSize;
+    /**
+     * 当前状态对应的记录(从最旧的一条开始数)，没有记录时为-1
+     */
+    private int mCursor = -1;
+
+    public TransformHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TransformHistory(int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be at least 2");
+        mCapacity = capacity;
+        mRecords = new float[capacity * RECORD_FIELDS];
+    }
+
+    /**
+     * 记录engine当前的状态。与当前记录相同时不记录；当前记录之后的(可以重做的)记录会被丢弃
+     *
+     * @return 是否新增了一条记录
+     */
+    public boolean record(TransformEngine engine) {
+        if (mCursor >= 0) {
+            int offset = offsetOf(mCursor);
+            if (mRecords[offset] == engine.getCenterX() && mRecords[offset + 1] == engine.getCenterY()
+                    && mRecords[offset + 2] == engine.getDegree() && mRecords[offset + 3] == engine.getScale()
+                    && mRecords[offset + 4] == flippedField(engine)) {
+                return false;
+            }
+        }
+        // 丢弃可以重做的记录
+        mSize = mCursor + 1;
+        if (mSize == mCapacity) {
+            // 已满，丢弃最旧的一条
+            mStart = (mStart + 1) % mCapacity;
+            mSize--;
+        }
+        int offset = offsetOf(mSize);
+        mRecords[offset] = engine.getCenterX();
+        mRecords[offset + 1] = engine.getCenterY();
+        mRecords[offset + 2] = engine.getDegree();
+        mRecords[offset + 3] = engine.getScale();
+        mRecords[offset + 4] = flippedField(engine);
+        mCursor = mSize;
+        mSize++;
+        return true;
+    }
+
+    public boolean canUndo() {
+        return mCursor > 0;
+    }
+
+    public boolean canRedo() {
+        return mCursor < mSize - 1;
+    }
+
+    /**
+     * 回到上一条记录的状态，设置到engine中，之后需要再调用engine.update()
+     *
+     * @return 没有可以撤销的记录时返回false
+     */
+    public boolean undo(TransformEngine engine) {
+        if (!canUndo()) return false;
+        apply(--mCursor, engine);
+        return true;
+    }
+
+    /**
+     * 恢复被撤销的下一条记录的状态，设置到engine中，之后需要再调用engine.update()
+     *
+     * @return 没有可以重做的记录时返回false
+     */
+    public boolean redo(TransformEngine engine) {
+        if (!canRedo()) return false;
+        apply(++mCursor, engine);
+        return true;
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+        mCursor = -1;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 修改最多保存的记录数，变小时保留最新的记录
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be at least 2");
+        if (capacity == mCapacity) return;
+        int drop = Math.max(0, mSize - capacity);
+        float[] records = new float[capacity * RECORD_FIELDS];
+        for (int i = drop; i < mSize; i++) {
+            System.arraycopy(mRecords, offsetOf(i), records, (i - drop) * RECORD_FIELDS, RECORD_FIELDS);
+        }
+        mRecords = records;
+        mCapacity = capacity;
+        mStart = 0;
+        mSize -= drop;
+        mCursor = Math.max(mCursor - drop, mSize == 0 ? -1 : 0);
+    }
+
+    private void apply(int index, TransformEngine engine) {
+        int offset = offsetOf(index);
+        engine.setCenter(mRecords[offset], mRecords[offset + 1]);
+        engine.setDegree(mRecords[offset + 2]);
+        engine.setScale(mRecords[offset + 3]);
+        engine.setFlipped(mRecords[offset + 4] != 0);
+    }
+
+    private static float flippedField(TransformEngine engine) {
+        return engine.isFlipped() ? 1 : 0;
+    }
+
+    /**
+     * 第index条记录在数组中的起始位置
+     */
+    private int offsetOf(int index) {
+        return ((mStart + index) % mCapacity) * RECORD_FIELDS;
+    }
+}
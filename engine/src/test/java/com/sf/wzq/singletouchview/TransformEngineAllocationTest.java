@@ -0,0 +1,104 @@
+package com.sf.wzq.singletouchview;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 手势热路径不分配对象：同一段拖动、旋转缩放、双指手势重复1000次和10000次，当前线程分配的字节数不随次数增长。
+ * 先按解释执行测量一次，避免JIT的逃逸分析把本该有的分配消除掉，再预热后测量一次
+ */
+public class TransformEngineAllocationTest {
+    /**
+     * 测量本身(以及JVM在测量线程上的少量簿记)允许的字节数，与循环次数无关
+     */
+    private static final long TOLERANCE_BYTES = 512;
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+    private final TransformEngine mEngine = new TransformEngine();
+    private final float[] mMatrixValues = new float[9];
+    private final float[] mRegion = new float[4];
+    private float mSink;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+
+        mEngine.setImageSize(400, 300);
+        mEngine.setPadding(8);
+        mEngine.setCenter(540, 960);
+        mEngine.setAngleSnap(90, TransformEngine.DEFAULT_SNAP_TOLERANCE);
+        mEngine.setElasticScale(true);
+        mEngine.update();
+        // 加载用到的类
+        gesture(1);
+    }
+
+    @Test
+    public void gestureDoesNotAllocateInterpreted() {
+        assertAllocationDoesNotGrow();
+    }
+
+    @Test
+    public void gestureDoesNotAllocateAfterWarmUp() {
+        gesture(50000);
+        assertAllocationDoesNotGrow();
+    }
+
+    private void assertAllocationDoesNotGrow() {
+        long baseline = allocated(0);
+        long small = allocated(1000);
+        long large = allocated(10000);
+        assertTrue("1000 moves allocated " + small + " bytes, baseline " + baseline,
+                small - baseline <= TOLERANCE_BYTES);
+        assertTrue("10000 moves allocated " + large + " bytes, 1000 moves " + small,
+                large - small <= TOLERANCE_BYTES);
+    }
+
+    private long allocated(int moves) {
+        long threadId = Thread.currentThread().getId();
+        long before = mThreadBean.getThreadAllocatedBytes(threadId);
+        gesture(moves);
+        return mThreadBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * 与SingleTouchView.onTouchEvent中每个ACTION_MOVE相同的调用：拖动、旋转缩放、双指各moves次，
+     * 每次都重新计算四个角、绘制矩阵和可见区域
+     */
+    private void gesture(int moves) {
+        for (int i = 0; i < moves; i++) {
+            mEngine.offsetCenter(1, -1);
+            move();
+        }
+        mEngine.startRotateZoom(740, 1110);
+        for (int i = 0; i < moves; i++) {
+            double angle = i * 0.05;
+            mEngine.rotateZoom((float) (540 + 250 * Math.cos(angle)), (float) (960 + 250 * Math.sin(angle)));
+            move();
+        }
+        mEngine.startPinch(440, 960, 640, 960);
+        for (int i = 0; i < moves; i++) {
+            float spread = 100 + i % 50;
+            mEngine.pinch(540 - spread, 960, 540 + spread, 960 + i % 7);
+            move();
+        }
+    }
+
+    private void move() {
+        mEngine.update();
+        mEngine.getMatrixValues(mMatrixValues, 800, 600, 300, 250);
+        mEngine.mapRectToImage(0, 0, 1080, 1920, mRegion);
+        if (mEngine.contains(540, 960)) {
+            mSink += mMatrixValues[0] + mRegion[0];
+        }
+    }
+}
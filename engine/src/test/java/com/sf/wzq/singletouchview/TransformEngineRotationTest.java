@@ -0,0 +1,124 @@
+package com.sf.wzq.singletouchview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 旋转手势按相对中心点的角度累加：转一整圈、多圈后角度正好增加360度的整数倍，慢速旋转不漂移
+ */
+public class TransformEngineRotationTest {
+    private static final float CENTER_X = 540;
+    private static final float CENTER_Y = 960;
+    private static final float RADIUS = 250;
+    private static final float EPSILON = 1e-3f;
+
+    private final TransformEngine mEngine = new TransformEngine();
+
+    @Before
+    public void setUp() {
+        mEngine.setImageSize(400, 300);
+        mEngine.setCenter(CENTER_X, CENTER_Y);
+        mEngine.setDegree(30);
+        mEngine.update();
+    }
+
+    /**
+     * 控制点从startDegree开始按stepDegree一步步绕中心转过sweepDegree
+     */
+    private void rotateZoom(double startDegree, double sweepDegree, double stepDegree) {
+        mEngine.startRotateZoom(x(startDegree), y(startDegree));
+        int steps = (int) Math.round(Math.abs(sweepDegree / stepDegree));
+        for (int i = 1; i <= steps; i++) {
+            double degree = startDegree + sweepDegree * i / steps;
+            mEngine.rotateZoom(x(degree), y(degree));
+        }
+    }
+
+    private static float x(double degree) {
+        return (float) (CENTER_X + RADIUS * Math.cos(Math.toRadians(degree)));
+    }
+
+    private static float y(double degree) {
+        return (float) (CENTER_Y + RADIUS * Math.sin(Math.toRadians(degree)));
+    }
+
+    @Test
+    public void fullTurnAddsExactly360Degrees() {
+        rotateZoom(0, 360, 1);
+        assertEquals(30 + 360, mEngine.getDegree(), EPSILON);
+    }
+
+    @Test
+    public void counterClockwiseTurnSubtracts360Degrees() {
+        rotateZoom(0, -360, 1);
+        assertEquals(30 - 360, mEngine.getDegree(), EPSILON);
+    }
+
+    @Test
+    public void multipleTurnsAccumulate() {
+        rotateZoom(0, 3 * 360, 7);
+        assertEquals(30 + 3 * 360, mEngine.getDegree(), EPSILON);
+    }
+
+    @Test
+    public void crossingTheAtan2SeamIsContinuous() {
+        // 从170度转到190度，atan2的结果在180度处从PI跳到-PI
+        rotateZoom(170, 20, 0.5);
+        assertEquals(30 + 20, mEngine.getDegree(), EPSILON);
+    }
+
+    @Test
+    public void slowRotationDoesNotDrift() {
+        // 每个采样点只转0.01度，acos在接近1时精度不够会漂移
+        rotateZoom(0, 360, 0.01);
+        assertEquals(30 + 360, mEngine.getDegree(), EPSILON);
+    }
+
+    @Test
+    public void turningBackReturnsToTheStartDegree() {
+        mEngine.startRotateZoom(x(0), y(0));
+        for (int i = 1; i <= 720; i++) {
+            mEngine.rotateZoom(x(i), y(i));
+        }
+        for (int i = 719; i >= 0; i--) {
+            mEngine.rotateZoom(x(i), y(i));
+        }
+        assertEquals(30, mEngine.getDegree(), EPSILON);
+    }
+
+    @Test
+    public void pinchFullTurnAddsExactly360Degrees() {
+        mEngine.startPinch(x(180), y(180), x(0), y(0));
+        for (int i = 1; i <= 360; i++) {
+            mEngine.pinch(x(180 + i), y(180 + i), x(i), y(i));
+        }
+        assertEquals(30 + 360, mEngine.getDegree(), EPSILON);
+        // 两指的中点一直在中心点，中心点不动
+        assertEquals(CENTER_X, mEngine.getCenterX(), EPSILON);
+        assertEquals(CENTER_Y, mEngine.getCenterY(), EPSILON);
+    }
+
+    @Test
+    public void snapDoesNotStopTheAccumulatedAngle() {
+        mEngine.setAngleSnap(90, TransformEngine.DEFAULT_SNAP_TOLERANCE);
+        mEngine.setDegree(0);
+        mEngine.startRotateZoom(x(0), y(0));
+        // 88度在吸附范围内，显示为90度
+        for (int i = 1; i <= 88; i++) {
+            mEngine.rotateZoom(x(i), y(i));
+        }
+        assertEquals(90, mEngine.getDegree(), EPSILON);
+        // 转出吸附范围后跟随手指，累加的是手指实际转过的角度
+        for (int i = 89; i <= 100; i++) {
+            mEngine.rotateZoom(x(i), y(i));
+        }
+        assertEquals(100, mEngine.getDegree(), EPSILON);
+        // 再转到一圈之后的88度，吸附到450度
+        for (int i = 101; i <= 448; i++) {
+            mEngine.rotateZoom(x(i), y(i));
+        }
+        assertEquals(450, mEngine.getDegree(), EPSILON);
+    }
+}
@@ -0,0 +1,89 @@
+package com.sf.wzq.singletouchview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 撤销记录达到上限时丢弃最旧的一条，撤销后新的记录清空重做，与当前记录相同的状态不重复记录
+ */
+public class TransformHistoryTest {
+    private static final int CAPACITY = 3;
+
+    private final TransformHistory mHistory = new TransformHistory(CAPACITY);
+    private final TransformEngine mEngine = new TransformEngine();
+
+    @Before
+    public void setUp() {
+        mEngine.setImageSize(100, 100);
+    }
+
+    /**
+     * 把engine移到(x, 0)并记录
+     */
+    private boolean recordAt(float x) {
+        mEngine.setCenter(x, 0);
+        return mHistory.record(mEngine);
+    }
+
+    @Test
+    public void overflowDropsOldestRecord() {
+        for (int x = 1; x <= CAPACITY + 2; x++) {
+            assertTrue(recordAt(x));
+        }
+        assertEquals(CAPACITY, mHistory.size());
+
+        // 只剩最新的3条：5、4、3，最旧的1、2已经丢弃
+        assertTrue(mHistory.undo(mEngine));
+        assertEquals(4, mEngine.getCenterX(), 0);
+        assertTrue(mHistory.undo(mEngine));
+        assertEquals(3, mEngine.getCenterX(), 0);
+        assertFalse(mHistory.canUndo());
+        assertFalse(mHistory.undo(mEngine));
+        assertEquals(3, mEngine.getCenterX(), 0);
+
+        assertTrue(mHistory.redo(mEngine));
+        assertTrue(mHistory.redo(mEngine));
+        assertEquals(5, mEngine.getCenterX(), 0);
+        assertFalse(mHistory.canRedo());
+    }
+
+    @Test
+    public void recordAfterUndoClearsRedo() {
+        recordAt(1);
+        recordAt(2);
+        recordAt(3);
+        mHistory.undo(mEngine);
+        mHistory.undo(mEngine);
+        assertTrue(mHistory.canRedo());
+
+        assertTrue(recordAt(10));
+        assertFalse(mHistory.canRedo());
+        assertFalse(mHistory.redo(mEngine));
+        assertEquals(2, mHistory.size());
+        assertTrue(mHistory.undo(mEngine));
+        assertEquals(1, mEngine.getCenterX(), 0);
+    }
+
+    @Test
+    public void sameStateIsRecordedOnce() {
+        TransformHistory history = new TransformHistory();
+        mEngine.setCenter(1, 0);
+        assertTrue(history.record(mEngine));
+        assertFalse(history.record(mEngine));
+        assertEquals(1, history.size());
+
+        // 角度、缩放比例或翻转任一不同都是新的状态
+        mEngine.setDegree(90);
+        assertTrue(history.record(mEngine));
+        mEngine.setScale(2);
+        assertTrue(history.record(mEngine));
+        mEngine.setFlipped(true);
+        assertTrue(history.record(mEngine));
+        assertFalse(history.record(mEngine));
+        assertEquals(4, history.size());
+    }
+}
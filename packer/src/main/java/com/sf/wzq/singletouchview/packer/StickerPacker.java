@@ -0,0 +1,238 @@
+package com.sf.wzq.singletouchview.packer;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 构建时把一组图片打包成StickerPack格式的贴图集，在普通的JVM上运行。
+ * 图片在这里解码成Bitmap的内存格式，App中只需要映射文件、复制像素。
+ * 完全不透明的图片存成RGB_565，像素数据只有一半大小，有透明部分的存成预乘alpha的ARGB_8888。
+ * <p>
+ * 用法：StickerPacker [--argb] 输出文件 图片或目录...，贴图的名字为去掉扩展名的文件名，
+ * 名字重复时(例如a.png和a.jpg，或不同目录中的同名文件)不输出文件，以非0状态退出。
+ * 文件格式见app中的StickerPack，两边的常量需要保持一致
+ */
+public class StickerPacker {
+    private static final int MAGIC = 0x53504B31;
+    private static final byte VERSION = 1;
+    private static final byte CONFIG_ARGB_8888 = 0;
+    private static final byte CONFIG_RGB_565 = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 一个解码好的贴图
+     */
+    private static class Entry {
+        final String name;
+        final int width, height;
+        final byte config;
+        final byte[] pixels;
+
+        Entry(String name, int width, int height, byte config, byte[] pixels) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.pixels = pixels;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean forceArgb = false;
+        int first = 0;
+        if (args.length > 0 && args[0].equals("--argb")) {
+            forceArgb = true;
+            first = 1;
+        }
+        if (args.length - first < 2) {
+            System.err.println("usage: StickerPacker [--argb] <output> <image or directory>...");
+            System.exit(1);
+        }
+
+        List<File> inputs = new ArrayList<File>();
+        for (int i = first + 1; i < args.length; i++) {
+            collect(new File(args[i]), inputs);
+        }
+        try {
+            int count = pack(new File(args[first]), inputs, forceArgb);
+            System.out.println("packed " + count + " stickers into " + args[first]);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 把inputs中的图片按顺序打包到output，名字重复时抛出IOException并且不写出文件
+     *
+     * @return 打包的贴图个数，不是图片的文件被跳过
+     */
+    static int pack(File output, List<File> inputs, boolean forceArgb) throws IOException {
+        checkNames(inputs);
+        List<Entry> entries = new ArrayList<Entry>(inputs.size());
+        for (File input : inputs) {
+            BufferedImage image = ImageIO.read(input);
+            if (image == null) {
+                System.err.println("skip " + input + ": not an image");
+                continue;
+            }
+            entries.add(convert(stripExtension(input.getName()), image, forceArgb));
+        }
+        write(output, entries);
+        return entries.size();
+    }
+
+    /**
+     * 目录按文件名排序展开，保证每次打包的结果相同
+     */
+    private static void collect(File file, List<File> out) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) return;
+            Arrays.sort(children);
+            for (File child : children) {
+                collect(child, out);
+            }
+        } else {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+                out.add(file);
+            }
+        }
+    }
+
+    /**
+     * App按名字查找贴图，同名的贴图只有一个能找到，所以有重复的名字时抛出IOException，列出所有重复的名字
+     */
+    private static void checkNames(List<File> inputs) throws IOException {
+        Map<String, File> names = new HashMap<String, File>(inputs.size() * 2);
+        StringBuilder duplicates = new StringBuilder();
+        for (File input : inputs) {
+            String name = stripExtension(input.getName());
+            File previous = names.put(name, input);
+            if (previous != null) {
+                duplicates.append("\nduplicate sticker name \"").append(name).append("\": ")
+                        .append(previous).append(" and ").append(input);
+            }
+        }
+        if (duplicates.length() > 0) {
+            throw new IOException("sticker names must be unique:" + duplicates);
+        }
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * 转换成Bitmap.copyPixelsFromBuffer要求的格式
+     */
+    private static Entry convert(String name, BufferedImage image, boolean forceArgb) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        boolean opaque = !forceArgb;
+        for (int i = 0; i < argb.length && opaque; i++) {
+            opaque = (argb[i] >>> 24) == 0xFF;
+        }
+
+        if (opaque) {
+            // 小端的16位 r << 11 | g << 5 | b，每个通道四舍五入到5、6位
+            byte[] pixels = new byte[argb.length * 2];
+            for (int i = 0; i < argb.length; i++) {
+                int r = quantize((argb[i] >> 16) & 0xFF, 31);
+                int g = quantize((argb[i] >> 8) & 0xFF, 63);
+                int b = quantize(argb[i] & 0xFF, 31);
+                int pixel = r << 11 | g << 5 | b;
+                pixels[i * 2] = (byte) pixel;
+                pixels[i * 2 + 1] = (byte) (pixel >> 8);
+            }
+            return new Entry(name, width, height, CONFIG_RGB_565, pixels);
+        }
+
+        // 预乘alpha的R、G、B、A字节
+        byte[] pixels = new byte[argb.length * 4];
+        for (int i = 0; i < argb.length; i++) {
+            int a = argb[i] >>> 24;
+            pixels[i * 4] = (byte) premultiply((argb[i] >> 16) & 0xFF, a);
+            pixels[i * 4 + 1] = (byte) premultiply((argb[i] >> 8) & 0xFF, a);
+            pixels[i * 4 + 2] = (byte) premultiply(argb[i] & 0xFF, a);
+            pixels[i * 4 + 3] = (byte) a;
+        }
+        return new Entry(name, width, height, CONFIG_ARGB_8888, pixels);
+    }
+
+    /**
+     * 把0-255的值四舍五入到0-max
+     */
+    private static int quantize(int component, int max) {
+        return (component * max + 127) / 255;
+    }
+
+    private static int premultiply(int component, int alpha) {
+        return (component * alpha + 127) / 255;
+    }
+
+    private static void write(File output, List<Entry> entries) throws IOException {
+        // 先算出索引的大小，像素数据从索引之后按4字节对齐开始
+        int indexBytes = 4 + 1 + 4;
+        for (Entry entry : entries) {
+            indexBytes += 2 + entry.name.getBytes(UTF_8).length + 4 + 4 + 1 + 4 + 4;
+        }
+        int[] offsets = new int[entries.size()];
+        long offset = align(indexBytes);
+        for (int i = 0; i < entries.size(); i++) {
+            offsets[i] = (int) offset;
+            offset = align(offset + entries.get(i).pixels.length);
+            if (offset > Integer.MAX_VALUE) throw new IOException("sticker pack larger than 2GB");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                byte[] name = entry.name.getBytes(UTF_8);
+                if (name.length > 0xFFFF) throw new IOException("name too long: " + entry.name);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(entry.width);
+                out.writeInt(entry.height);
+                out.writeByte(entry.config);
+                out.writeInt(offsets[i]);
+                out.writeInt(entry.pixels.length);
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                pad(out, offsets[i]);
+                out.write(entries.get(i).pixels);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 3) & ~3L;
+    }
+
+    private static void pad(DataOutputStream out, int offset) throws IOException {
+        while (out.size() < offset) {
+            out.writeByte(0);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.sf.wzq.singletouchview.packer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 打包已知像素的PNG，逐字节检查索引、偏移、对齐和像素数据，期望值按app中StickerPack的格式手算
+ */
+public class StickerPackerTest {
+    private static final int HEADER_BYTES = 4 + 1 + 4;
+    /**
+     * 一个贴图的索引除名字以外的字节数
+     */
+    private static final int ENTRY_BYTES = 2 + 4 + 4 + 1 + 4 + 4;
+
+    private File mDir;
+    private File mOutput;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("packer").toFile();
+        mOutput = new File(mDir, "out.pack");
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDir);
+    }
+
+    @Test
+    public void opaqueImageIsRoundedRgb565() throws IOException {
+        File input = png("a.png", BufferedImage.TYPE_INT_RGB, 0xFF0000, 0x00FF00, 0x804020);
+        assertEquals(1, StickerPacker.pack(mOutput, Arrays.asList(input), false));
+
+        DataInputStream in = read();
+        assertHeader(in, 1);
+        int offset = align(HEADER_BYTES + ENTRY_BYTES + 1);
+        assertEntry(in, "a", 3, 1, 1, offset, 6);
+        skipTo(in, HEADER_BYTES + ENTRY_BYTES + 1, offset);
+        // 小端的 r << 11 | g << 5 | b。0x804020四舍五入为(16, 16, 4)，截断会得到(15, 15, 3)
+        assertArrayEquals(new byte[]{0x00, (byte) 0xF8, (byte) 0xE0, 0x07, 0x04, (byte) 0x82}, bytes(in, 6));
+        assertEquals(offset + 6, mOutput.length());
+    }
+
+    @Test
+    public void translucentImageIsPremultipliedArgb() throws IOException {
+        File input = png("b.png", BufferedImage.TYPE_INT_ARGB, 0x80FF0000, 0x40204080);
+        StickerPacker.pack(mOutput, Arrays.asList(input), false);
+
+        DataInputStream in = read();
+        assertHeader(in, 1);
+        int offset = align(HEADER_BYTES + ENTRY_BYTES + 1);
+        assertEntry(in, "b", 2, 1, 0, offset, 8);
+        skipTo(in, HEADER_BYTES + ENTRY_BYTES + 1, offset);
+        // R、G、B、A字节，颜色乘以alpha后四舍五入：255 * 128 / 255 = 128，(32, 64, 128) * 64 / 255 = (8, 16, 32)
+        assertArrayEquals(new byte[]{(byte) 128, 0, 0, (byte) 128, 8, 16, 32, 64}, bytes(in, 8));
+    }
+
+    @Test
+    public void forceArgbKeepsOpaqueImagesInArgb() throws IOException {
+        File input = png("c.png", BufferedImage.TYPE_INT_RGB, 0x123456);
+        StickerPacker.pack(mOutput, Arrays.asList(input), true);
+
+        DataInputStream in = read();
+        assertHeader(in, 1);
+        int offset = align(HEADER_BYTES + ENTRY_BYTES + 1);
+        assertEntry(in, "c", 1, 1, 0, offset, 4);
+        skipTo(in, HEADER_BYTES + ENTRY_BYTES + 1, offset);
+        assertArrayEquals(new byte[]{0x12, 0x34, 0x56, (byte) 0xFF}, bytes(in, 4));
+    }
+
+    @Test
+    public void pixelDataIsAlignedToFourBytes() throws IOException {
+        List<File> inputs = Arrays.asList(
+                png("a.png", BufferedImage.TYPE_INT_RGB, 0xFFFFFF, 0xFFFFFF, 0xFFFFFF),
+                png("bb.png", BufferedImage.TYPE_INT_RGB, 0x000000));
+        assertEquals(2, StickerPacker.pack(mOutput, inputs, false));
+
+        DataInputStream in = read();
+        assertHeader(in, 2);
+        int indexBytes = HEADER_BYTES + ENTRY_BYTES + 1 + ENTRY_BYTES + 2;
+        assertEquals(50, indexBytes);
+        // 索引之后补齐到52，第一个贴图6个字节，第二个从60开始
+        assertEntry(in, "a", 3, 1, 1, 52, 6);
+        assertEntry(in, "bb", 1, 1, 1, 60, 2);
+        assertArrayEquals(new byte[2], bytes(in, 2));
+        assertArrayEquals(new byte[]{-1, -1, -1, -1, -1, -1}, bytes(in, 6));
+        assertArrayEquals(new byte[2], bytes(in, 2));
+        assertArrayEquals(new byte[]{0, 0}, bytes(in, 2));
+        assertEquals(62, mOutput.length());
+    }
+
+    @Test
+    public void duplicateNamesFailWithoutOutput() throws IOException {
+        File first = new File(mDir, "one");
+        File second = new File(mDir, "two");
+        assertTrue(first.mkdir() && second.mkdir());
+        List<File> inputs = Arrays.asList(
+                png("one/x.png", BufferedImage.TYPE_INT_RGB, 0),
+                png("two/x.jpg", BufferedImage.TYPE_INT_RGB, 0));
+        try {
+            StickerPacker.pack(mOutput, inputs, false);
+            fail("duplicate names accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("\"x\""));
+        }
+        assertFalse(mOutput.exists());
+    }
+
+    /**
+     * 写出一行像素的图片，jpg的扩展名也按PNG编码，保证像素不变
+     */
+    private File png(String name, int type, int... pixels) throws IOException {
+        BufferedImage image = new BufferedImage(pixels.length, 1, type);
+        for (int x = 0; x < pixels.length; x++) {
+            image.setRGB(x, 0, pixels[x]);
+        }
+        File file = new File(mDir, name);
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    private DataInputStream read() throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(mOutput.toPath())));
+    }
+
+    private static void assertHeader(DataInputStream in, int count) throws IOException {
+        assertEquals(0x53504B31, in.readInt());
+        assertEquals(1, in.readByte());
+        assertEquals(count, in.readInt());
+    }
+
+    private static void assertEntry(DataInputStream in, String name, int width, int height,
+                                    int config, int offset, int length) throws IOException {
+        assertEquals(name.length(), in.readShort());
+        assertEquals(name, new String(bytes(in, name.length()), "UTF-8"));
+        assertEquals(width, in.readInt());
+        assertEquals(height, in.readInt());
+        assertEquals(config, in.readByte());
+        assertEquals(offset, in.readInt());
+        assertEquals(length, in.readInt());
+    }
+
+    /**
+     * 从position跳到offset，跳过的对齐字节必须为0
+     */
+    private static void skipTo(DataInputStream in, int position, int offset) throws IOException {
+        assertArrayEquals(new byte[offset - position], bytes(in, offset - position));
+    }
+
+    private static byte[] bytes(DataInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[count];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}